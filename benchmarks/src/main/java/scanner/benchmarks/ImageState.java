@@ -0,0 +1,108 @@
+package scanner.benchmarks;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import scanner.BitMap;
+import scanner.Main;
+import scanner.PixelReader;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The image of a benchmark and the results of the stages before the measured one.
+ * <p>
+ * The image is an asset (assets/*) or a synthetic image: "synthetic-N" is an image of N megapixels with dark ellipses on a light background.
+ * The assets directory can be set with -Dassets=path (default: assets or ../assets).
+ */
+@State(Scope.Benchmark)
+public class ImageState {
+	private static final int MIN_DEVIATION = 130, MIN_SIZE_FACTOR = 140; // the default values of Main
+
+	@Param({"mtest4.jpg", "mtest5.jpg", "mtest6.jpg", "ntest2.png", "ntest3.png", "synthetic-1", "synthetic-10", "synthetic-100"})
+	public String image;
+
+	public BufferedImage bufferedImage;
+
+	public PixelReader reader;
+
+	public int[][][] pixels;
+
+	public int[] background;
+
+	public BitMap map;
+
+	public int minDeviation = MIN_DEVIATION, minSize;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		bufferedImage = image.startsWith("synthetic-") ? createSynthetic(Integer.parseInt(image.substring("synthetic-".length()))) : readAsset(image);
+
+		reader = PixelReader.of(bufferedImage);
+
+		background = Main.getBackground(reader);
+
+		map = Main.getSilhouettesMap(reader, background, minDeviation);
+
+		minSize = bufferedImage.getWidth() * bufferedImage.getHeight() / MIN_SIZE_FACTOR;
+	}
+
+	/**
+	 * Creates the pixels array for the benchmarks which need it. It is not created for all benchmarks,
+	 * because it takes 16 bytes per pixel and more.
+	 */
+	public void createPixels() {
+		if (pixels == null) {
+			pixels = Main.getPixels(bufferedImage);
+		}
+	}
+
+	private static BufferedImage readAsset(String name) throws IOException {
+		File directory = new File(System.getProperty("assets", "assets"));
+
+		if (!directory.isDirectory()) {
+			directory = new File("../assets");
+		}
+
+		return ImageIO.read(new File(directory, name));
+	}
+
+	/**
+	 * Creates an image with dark ellipses on a light background. The same size gives the same image.
+	 *
+	 * @param megapixels the size of the image in megapixels
+	 * @return the image
+	 */
+	private static BufferedImage createSynthetic(int megapixels) {
+		final int width = (int) Math.sqrt(megapixels * 1_000_000 * 4 / 3.0); // 4:3 aspect ratio
+		final int height = megapixels * 1_000_000 / width;
+
+		final BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+
+		final Graphics2D g = result.createGraphics();
+
+		g.setColor(new Color(230, 230, 220));
+		g.fillRect(0, 0, width, height);
+
+		final Random random = new Random(megapixels);
+
+		for (int i = 0; i < 40; ++i) {
+			final int size = width / 40 + random.nextInt(width / 10);
+
+			g.setColor(new Color(random.nextInt(80), random.nextInt(80), random.nextInt(80)));
+			g.fillOval(random.nextInt(width - size), random.nextInt(height - size), size, size * (50 + random.nextInt(100)) / 100);
+		}
+
+		g.dispose();
+
+		return result;
+	}
+}
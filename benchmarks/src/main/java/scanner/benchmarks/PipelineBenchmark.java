@@ -0,0 +1,122 @@
+package scanner.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import scanner.BitMap;
+import scanner.DistanceMap;
+import scanner.Main;
+import scanner.PixelReader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages of Main.findSilhouettes before the scan.
+ * <p>
+ * Run with -prof gc to see the allocation rate of each stage.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss1g")
+public class PipelineBenchmark {
+	private static final int CROP_POWER = 5; // the default crop power of the GUI
+
+	@Benchmark
+	public int[][][] getPixels(ImageState state) {
+		return Main.getPixels(state.bufferedImage);
+	}
+
+	@Benchmark
+	public int[] getBackgroundFromPixels(ImageState state) {
+		state.createPixels();
+
+		return Main.getBackground(state.pixels);
+	}
+
+	@Benchmark
+	public int[] getBackground(ImageState state) {
+		return Main.getBackground(state.reader);
+	}
+
+	@Benchmark
+	public BitMap getSilhouettesMapFromPixels(ImageState state) {
+		state.createPixels();
+
+		return Main.getSilhouettesMap(state.pixels, state.background, state.minDeviation);
+	}
+
+	@Benchmark
+	public BitMap getSilhouettesMap(ImageState state) {
+		return Main.getSilhouettesMap(state.reader, state.background, state.minDeviation);
+	}
+
+	/**
+	 * Thresholds with the fused scalar loop, which is replaced by the vectorizable loops of getSilhouettesMap.
+	 */
+	@Benchmark
+	public long[] getSilhouettesMapScalar(ImageState state) {
+		final PixelReader reader = state.reader;
+		final int width = reader.width, height = reader.height, wordsPerRow = (width + 63) >>> 6;
+		final int[] background = state.background;
+
+		final long[] words = new long[wordsPerRow * height];
+		final int[] row = new int[width];
+
+		for (int y = 0; y < height; ++y) {
+			reader.readRow(y, row);
+
+			long word = 0;
+
+			for (int x = 0; x < width; ++x) {
+				final int pixel = row[x];
+
+				// sum deviation of each channel
+				final int deviation = Math.abs(((pixel >> 16) & 0xff) - background[0])
+						+ Math.abs(((pixel >> 8) & 0xff) - background[1])
+						+ Math.abs((pixel & 0xff) - background[2])
+						+ Math.abs((pixel >>> 24) - background[3]);
+
+				if (deviation >= state.minDeviation) {
+					word |= 1L << x; // the shift uses only the lowest 6 bits of x
+				}
+
+				if ((x & 63) == 63 || x == width - 1) { // the word is full or the row is ended
+					words[y * wordsPerRow + (x >>> 6)] = word;
+
+					word = 0;
+				}
+			}
+		}
+
+		return words;
+	}
+
+	@Benchmark
+	public BitMap getSilhouettesMapFused(ImageState state) {
+		final PixelReader reader = PixelReader.of(state.bufferedImage);
+
+		return Main.getSilhouettesMap(reader, Main.getBackground(reader), state.minDeviation);
+	}
+
+	@Benchmark
+	public BitMap cropMap(ImageState state) {
+		BitMap map = state.map;
+
+		for (int i = 0; i < CROP_POWER; ++i) {
+			map = Main.cropMap(map);
+		}
+
+		return map;
+	}
+
+	@Benchmark
+	public BitMap cropMapWithDistances(ImageState state) {
+		return new DistanceMap(state.map).crop(CROP_POWER);
+	}
+}
@@ -0,0 +1,79 @@
+package scanner.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import scanner.ImageScanner;
+import scanner.ImageScannerParallel;
+import scanner.ScanMode;
+import scanner.Silhouettes;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the scan algorithms on the same maps.
+ * <p>
+ * DFS needs a big stack, so the forks run with -Xss1g. The scaling of the parallel scanner is measured by the count of threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss1g")
+public class ScannerBenchmark {
+	@State(Scope.Benchmark)
+	public static class ScannerState {
+		@Param({"DFS", "BFS", "UNION_FIND", "PARALLEL", "RUNS"})
+		public ScanMode mode;
+
+		public ImageScanner scanner;
+
+		@Setup(Level.Trial)
+		public void setUp(ImageState image) {
+			scanner = mode.createScanner(image.map, image.minSize);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ParallelState {
+		@Param({"1", "2", "4", "8", "16"})
+		public int threads;
+
+		public ForkJoinPool pool;
+
+		public ImageScanner scanner;
+
+		@Setup(Level.Trial)
+		public void setUp(ImageState image) {
+			pool = new ForkJoinPool(threads);
+
+			scanner = new ImageScannerParallel(image.map, image.minSize, pool);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			pool.shutdown();
+		}
+	}
+
+	@Benchmark
+	public Silhouettes scan(ScannerState state) {
+		return state.scanner.scan();
+	}
+
+	@Benchmark
+	public Silhouettes scanParallel(ParallelState state) {
+		return state.scanner.scan();
+	}
+}
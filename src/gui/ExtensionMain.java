@@ -1,20 +1,29 @@
 package gui;
 
+import scanner.BitMap;
+import scanner.DeviationMap;
+import scanner.DistanceMap;
+import scanner.ImageScanner;
 import scanner.Main;
-import scanner.ImageScannerDFS;
+import scanner.PixelReader;
+import scanner.ScanMode;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.event.ItemListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Displays an image as silhouettes map or as silhouettes.
@@ -23,7 +32,9 @@ import java.util.List;
  * Controls:
  * Change the value of min deviation - mouse wheel or up/down keys.
  * <p>
- * To scan large images with DFS you should increase stack size (VM option -Xss256m).
+ * The silhouettes are recomputed on a background thread, so the window is not blocked while the values are changed.
+ * A burst of changes is coalesced into the latest values, and a computation of outdated values is dropped.
+ * The worker draws the frame into one of two reused buffers, and the window shows the other one.
  */
 public class ExtensionMain extends ImagePainter {
 	private static final int DEFAULT_MIN_SIZE_FACTOR = 380; // the default value for factor of min size
@@ -32,6 +43,18 @@ public class ExtensionMain extends ImagePainter {
 
 	private static final Color[] colors = new Color[]{Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.MAGENTA, Color.CYAN, new Color(255, 100, 0), new Color(0, 150, 0)};
 
+	private static final int[] palette = new int[colors.length]; // the ARGB values of the colors
+
+	static {
+		for (int i = 0; i < colors.length; ++i) {
+			palette[i] = colors[i].getRGB();
+		}
+	}
+
+	private static final int MAP_COLOR = 0xff000000; // black
+
+	private static final int FRAMES_COUNT = 2; // the shown frame and the frame which is drawn by the worker
+
 	private static final int MAX_MIN_SIZE_FACTOR = 5000; // the max value of the min size factor for slider
 	private static final int MAX_CROP_POWER = 50; // the max value of the crop power for slider
 
@@ -39,16 +62,36 @@ public class ExtensionMain extends ImagePainter {
 
 	private int cropPower = 5;
 
-	private BufferedImage originalImage, mapImage, silhouettesImage;
+	private int minSizeFactor = DEFAULT_MIN_SIZE_FACTOR;
+
+	private PixelReader pixels; // reads the rows of the original image into the frame
+
+	private DeviationMap deviations; // the deviations of the pixels, so the min deviation can be changed without reading the image
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(task -> {
+		final Thread thread = new Thread(task, "Silhouettes Finder worker");
+
+		thread.setDaemon(true);
 
-	private boolean[][] map;
+		return thread;
+	});
 
-	private int[][][] pixels;
-	private int[] background;
+	private final AtomicReference<Request> pending = new AtomicReference<>(); // the latest values which are not computed yet
+
+	private final BlockingQueue<BufferedImage> frames = new ArrayBlockingQueue<>(FRAMES_COUNT); // the frames which are not shown
+
+	// the state of the worker thread
+	private BitMap map;
+
+	private DistanceMap distances; // the distances of the uncropped map, so the crop power can be changed without recomputation
+
+	private int computedMinDeviation = -1, computedCropPower = -1, computedMinSizeFactor = -1; // the values of the distances, the map and the scan
+
+	private ImageScanner scanner; // gives the label image, so the silhouettes are colored without filling them
 
 	private int silhouettesCount;
 
-	private ImageScannerDFS scanner, filler;
+	private final int[] row; // the row of the original image
 
 	private JPanel menuPanel;
 
@@ -75,13 +118,15 @@ public class ExtensionMain extends ImagePainter {
 	private ExtensionMain(String path) throws IOException, ArrayIndexOutOfBoundsException {
 		super("Silhouettes Finder", 0, RIGHT_SHIFT);
 
-		pixels = Main.getPixels(originalImage = ImageIO.read(new File(path)));
+		pixels = PixelReader.of(ImageIO.read(new File(path)));
 
-		mapImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		deviations = new DeviationMap(pixels, Main.getBackground(pixels));
 
-		background = Main.getBackground(pixels);
+		for (int i = 0; i < FRAMES_COUNT; ++i) {
+			frames.add(new BufferedImage(pixels.width, pixels.height, BufferedImage.TYPE_INT_ARGB));
+		}
 
-		imageToDraw = new BufferedImage(pixels.length, pixels[0].length, BufferedImage.TYPE_INT_ARGB);
+		row = new int[pixels.width];
 
 		addMouseWheelListener(e -> setMinDeviation(minDeviation - (int) e.getPreciseWheelRotation()));
 
@@ -108,7 +153,7 @@ public class ExtensionMain extends ImagePainter {
 		labelCropPower = new JLabel("Crop power (" + cropPower + "):");
 		labelSilhouettesCount = new JLabel();
 
-		sliderMinDeviation = new JSlider(1, 1020, minDeviation); // 1020 is the max value of deviation (1020 = 255 * 4) (255 is max channel value, 4 is channels count)
+		sliderMinDeviation = new JSlider(1, DeviationMap.MAX_DEVIATION, minDeviation);
 		sliderMinSizeFactor = new JSlider(1, MAX_MIN_SIZE_FACTOR, DEFAULT_MIN_SIZE_FACTOR);
 		sliderCropPower = new JSlider(0, MAX_CROP_POWER, cropPower);
 
@@ -128,7 +173,7 @@ public class ExtensionMain extends ImagePainter {
 
 		menuPanel.setLayout(layout);
 
-		ItemListener itemListener = e -> updateImage();
+		ItemListener itemListener = e -> updateMap();
 
 		checkBoxDrawOriginalImage.addItemListener(itemListener);
 		checkBoxDrawMap.addItemListener(itemListener);
@@ -136,9 +181,7 @@ public class ExtensionMain extends ImagePainter {
 
 		sliderMinDeviation.addChangeListener(e -> setMinDeviation(sliderMinDeviation.getValue()));
 		sliderMinSizeFactor.addChangeListener(e -> {
-			final int minSizeFactor = sliderMinSizeFactor.getValue();
-
-			scanner.minSize = filler.minSize = originalImage.getWidth() * originalImage.getHeight() / minSizeFactor;
+			minSizeFactor = sliderMinSizeFactor.getValue();
 
 			labelMinSizeFactor.setText("Min size factor (" + minSizeFactor + "):");
 
@@ -149,15 +192,6 @@ public class ExtensionMain extends ImagePainter {
 
 			labelCropPower.setText("Crop power (" + cropPower + "):");
 
-			map = Main.getSilhouettesMap(pixels, background, minDeviation);
-
-			for (int i = 0; i < cropPower; ++i) {
-				map = Main.cropMap(map);
-			}
-
-			scanner.map = map;
-			filler.map = map;
-
 			updateMap();
 		});
 
@@ -174,98 +208,158 @@ public class ExtensionMain extends ImagePainter {
 
 		panel.add(menuPanel);
 
-		map = Main.getSilhouettesMap(pixels, background, minDeviation);
+		updateMap();
+
+		pack();
+
+		previousWidth = getWidth();
+	}
+
+	/**
+	 * Requests the recomputation of the map and the silhouettes with the current values.
+	 * The result is shown when it is ready.
+	 */
+	private void updateMap() {
+		final Request request = new Request(minDeviation, cropPower, minSizeFactor,
+				checkBoxDrawOriginalImage.isSelected(), checkBoxDrawMap.isSelected(), checkBoxDrawSilhouettes.isSelected());
 
-		for (int i = 0; i < cropPower; ++i) {
-			map = Main.cropMap(map);
+		if (pending.getAndSet(request) == null) { // else the worker will take the new values
+			worker.execute(this::compute);
 		}
+	}
 
-		final int minSize = map.length * map[0].length / DEFAULT_MIN_SIZE_FACTOR;
+	/**
+	 * Computes the map and the silhouettes of the latest values on the worker thread and shows them on the event dispatch thread.
+	 * Stops if newer values are requested, then the next task computes them.
+	 */
+	private void compute() {
+		final Request request = pending.getAndSet(null);
 
-		scanner = new ImageScannerDFS(map, minSize);
+		if (request == null) {
+			return;
+		}
 
-		filler = new ImageScannerDFS(map, minSize) { // override scanner to make it fill
-			@Override
-			public void scan(int x, int y) throws ArrayIndexOutOfBoundsException {
-				if (map[x][y] && !checked[x][y]) {
-					silhouettesImage.setRGB(x, y, colors[silhouettesCount % colors.length].getRGB());
-				}
+		if (request.minDeviation != computedMinDeviation) {
+			distances = new DistanceMap(deviations.threshold(request.minDeviation));
 
-				super.scan(x, y);
-			}
-		};
+			computedMinDeviation = request.minDeviation;
+			computedCropPower = -1; // the map is outdated
 
-		updateMap();
+			if (pending.get() != null) { // the values are outdated
+				return;
+			}
+		}
 
-		pack();
+		if (request.cropPower != computedCropPower) {
+			map = distances.crop(request.cropPower);
 
-		previousWidth = getWidth();
-	}
+			computedCropPower = request.cropPower;
+			computedMinSizeFactor = -1; // the silhouettes are outdated
 
-	private void updateMap() {
-		// draw map
-		for (int x = 0; x < imageToDraw.getWidth(); ++x) {
-			for (int y = 0; y < imageToDraw.getHeight(); ++y) {
-				mapImage.setRGB(x, y, map[x][y] ? -16777216 : 0); // -16777216 is black; 0 is transparent
+			if (pending.get() != null) {
+				return;
 			}
 		}
 
-		// draw silhouettes
-		final List<Integer[]> silhouettes = scanner.scan();
+		if (request.minSizeFactor != computedMinSizeFactor) {
+			final int minSize = map.width * map.height / request.minSizeFactor;
 
-		silhouettesCount = 0;
+			if (scanner == null) {
+				scanner = ScanMode.UNION_FIND.createScanner(map, minSize);
 
-		silhouettesImage = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
+				scanner.setLabeling(true);
+			}
+
+			scanner.map = map;
+			scanner.minSize = minSize;
 
-		filler.checked = new boolean[map.length][map[0].length]; // reset array of checked cells of the filler
+			silhouettesCount = scanner.scan().size();
 
-		// fill each silhouette
-		for (Integer[] silhouette : silhouettes) {
-			filler.scan(silhouette[0], silhouette[1]);
+			computedMinSizeFactor = request.minSizeFactor;
 
-			++silhouettesCount;
+			if (pending.get() != null) {
+				return;
+			}
 		}
 
-		labelSilhouettesCount.setText("Silhouettes count: " + silhouettesCount);
+		final BufferedImage frame;
+
+		try {
+			frame = frames.take(); // waits until the window stops showing it
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			return;
+		}
+
+		drawFrame(request, ((DataBufferInt) frame.getRaster().getDataBuffer()).getData());
+
+		final int count = silhouettesCount;
+
+		SwingUtilities.invokeLater(() -> {
+			if (pending.get() != null) { // newer values are requested while the result was published
+				frames.add(frame);
+
+				return;
+			}
+
+			final BufferedImage shown = imageToDraw;
 
-		updateImage();
+			setImage(frame);
+
+			if (shown != null) {
+				frames.add(shown);
+			}
+
+			labelSilhouettesCount.setText("Silhouettes count: " + count);
+		});
 	}
 
-	private void updateImage() {
-		// draw the original image
-		if (checkBoxDrawOriginalImage.isSelected()) {
-			ColorModel colorModel = originalImage.getColorModel();
+	/**
+	 * Draws the original image (or the background), the map and the silhouettes into a frame. Writes the pixels directly.
+	 *
+	 * @param request the values of the frame
+	 * @param frame   the ARGB pixels of the frame. The index of a pixel is y * width + x
+	 */
+	private void drawFrame(Request request, int[] frame) {
+		final int width = map.width, height = map.height;
 
-			imageToDraw = new BufferedImage(colorModel, originalImage.copyData(null), colorModel.isAlphaPremultiplied(), null);
-		} else { // fill with the background color
-			Graphics g = imageToDraw.getGraphics();
+		final int[] labels = scanner.getLabels();
 
-			g.setColor(BACKGROUND);
+		final int background = BACKGROUND.getRGB();
 
-			g.fillRect(0, 0, imageToDraw.getWidth(), imageToDraw.getHeight());
-		}
+		for (int y = 0; y < height; ++y) {
+			final int rowStart = y * width;
 
-		// draw map
-		if (checkBoxDrawMap.isSelected()) {
-			Graphics g = imageToDraw.getGraphics();
+			// draw the original image
+			if (request.drawOriginalImage) {
+				pixels.readRow(y, row);
 
-			g.drawImage(mapImage, 0, 0, null);
-		}
+				System.arraycopy(row, 0, frame, rowStart, width);
+			} else { // fill with the background color
+				Arrays.fill(frame, rowStart, rowStart + width, background);
+			}
 
-		if (checkBoxDrawSilhouettes.isSelected()) {
-			Graphics g = imageToDraw.getGraphics();
+			// draw the map and the silhouettes. Only the cells of the map can be silhouette's cells
+			if (request.drawMap || request.drawSilhouettes) {
+				for (int x = map.nextSetBit(0, y); x >= 0; x = map.nextSetBit(x + 1, y)) {
+					final int label = labels[rowStart + x];
 
-			g.drawImage(silhouettesImage, 0, 0, null);
+					if (request.drawSilhouettes && label != 0) {
+						frame[rowStart + x] = palette[(label - 1) % palette.length];
+					} else if (request.drawMap) {
+						frame[rowStart + x] = MAP_COLOR;
+					}
+				}
+			}
 		}
-
-		repaint();
 	}
 
 	private void setMinDeviation(int value) {
 		if (value < 1) {
 			value = 1;
-		} else if (value > 1020) { // 1020 is the max value of deviation (1020 = 255 * 4) (255 is max channel value, 4 is channels count)
-			value = 1020;
+		} else if (value > DeviationMap.MAX_DEVIATION) {
+			value = DeviationMap.MAX_DEVIATION;
 		}
 
 		if (minDeviation != value) { // if min deviation is changed
@@ -275,19 +369,28 @@ public class ExtensionMain extends ImagePainter {
 
 			sliderMinDeviation.setValue(minDeviation);
 
-			map = Main.getSilhouettesMap(pixels, background, minDeviation);
-
-			for (int i = 0; i < cropPower; ++i) {
-				map = Main.cropMap(map);
-			}
-
-			scanner.map = map;
-			filler.map = map;
-
 			updateMap();
 		}
 	}
 
+	/**
+	 * The values to compute the silhouettes and to draw them.
+	 */
+	private static class Request {
+		private final int minDeviation, cropPower, minSizeFactor;
+
+		private final boolean drawOriginalImage, drawMap, drawSilhouettes;
+
+		private Request(int minDeviation, int cropPower, int minSizeFactor, boolean drawOriginalImage, boolean drawMap, boolean drawSilhouettes) {
+			this.minDeviation = minDeviation;
+			this.cropPower = cropPower;
+			this.minSizeFactor = minSizeFactor;
+			this.drawOriginalImage = drawOriginalImage;
+			this.drawMap = drawMap;
+			this.drawSilhouettes = drawSilhouettes;
+		}
+	}
+
 	@Override
 	public void validate() {
 		super.validate();
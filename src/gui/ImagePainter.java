@@ -1,13 +1,18 @@
 package gui;
 
 import javax.swing.*;
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 
 /**
  * Creates a window and draws an image.
+ * <p>
+ * The scaled image is cached for the window size, so a repaint only copies it.
  */
 public abstract class ImagePainter extends JFrame {
 	private static final int WIDTH = 880, HEIGHT = 405; // the default window size
@@ -21,6 +26,9 @@ public abstract class ImagePainter extends JFrame {
 
 	protected BufferedImage imageToDraw;
 
+	private BufferedImage scaledImage; // the scaled image to draw
+	private BufferedImage scaledSource; // the image which is scaled, null if the scaled image is outdated
+
 	protected ImagePainter(String name) {
 		this(name, 0, 0);
 	}
@@ -51,8 +59,27 @@ public abstract class ImagePainter extends JFrame {
 						scaledHeight = imageToDraw.getHeight() * (int) scale;
 					}
 
+					if (scaledWidth <= 0 || scaledHeight <= 0) {
+						return;
+					}
+
+					if (scaledImage == null || scaledImage.getWidth() != scaledWidth || scaledImage.getHeight() != scaledHeight) { // the window is resized
+						scaledImage = getGraphicsConfiguration().createCompatibleImage(scaledWidth, scaledHeight, Transparency.TRANSLUCENT);
+						scaledSource = null;
+					}
+
+					if (scaledSource != imageToDraw) { // the image is changed
+						final Graphics2D scaledGraphics = scaledImage.createGraphics();
+
+						scaledGraphics.setComposite(AlphaComposite.Src); // replace the old pixels
+						scaledGraphics.drawImage(imageToDraw, 0, 0, scaledWidth, scaledHeight, null);
+						scaledGraphics.dispose();
+
+						scaledSource = imageToDraw;
+					}
+
 					// draw scaled image at center
-					g.drawImage(imageToDraw, (leftShift - rightShift) / 2 + (getWidth() - scaledWidth) / 2, (getHeight() - scaledHeight) / 2, scaledWidth, scaledHeight, null);
+					g.drawImage(scaledImage, (leftShift - rightShift) / 2 + (getWidth() - scaledWidth) / 2, (getHeight() - scaledHeight) / 2, null);
 				}
 			}
 		};
@@ -70,6 +97,19 @@ public abstract class ImagePainter extends JFrame {
 		setVisible(true);
 	}
 
+	/**
+	 * Sets the image to draw and repaints the window. Must be called if the pixels of the image are changed.
+	 *
+	 * @param image the image
+	 */
+	protected void setImage(BufferedImage image) {
+		imageToDraw = image;
+
+		scaledSource = null; // the image can be the same object with other pixels
+
+		panel.repaint();
+	}
+
 	/**
 	 * Sets color to the specified pixel of the image.
 	 *
@@ -80,6 +120,8 @@ public abstract class ImagePainter extends JFrame {
 	 */
 	protected void setPixel(int x, int y, Color color) throws NullPointerException {
 		imageToDraw.setRGB(x, y, color.getRGB());
+
+		scaledSource = null;
 	}
 
 	public JPanel getPanel() {
@@ -0,0 +1,160 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * Thresholds an image against its local background instead of the global one ({@link Main#getBackground(PixelReader)}).
+ * <p>
+ * The background of a pixel is the mean color of the background pixels of the square window around it
+ * (the window is clipped by the image border). The background pixels are the pixels whose deviation from the global background
+ * is less than min deviation, so the silhouettes do not darken the mean of the windows near them.
+ * If a window has no background pixels (it is inside a large silhouette or a dark region), the pixel is thresholded
+ * against the global background, so the small windows can miss the silhouettes which are found with the bigger ones.
+ * <p>
+ * The sums of the channels and the count of the background pixels are kept per column for the rows of the window,
+ * and the window slides down the image: a row is added to the column sums when it enters the window and is subtracted
+ * when it leaves it. So the mean of any window is computed in O(1), the threshold is linear in the pixels count
+ * whatever the window size is, and the sums use O(width) memory. Each row is read three times.
+ */
+public class AdaptiveThreshold {
+	public final int width, height; // the dimensions of the image
+
+	private final PixelReader pixels;
+
+	private final int[] background; // the global background color as array[4] (red, green, blue, alpha)
+	private final int minDeviation; // the min deviation value
+
+	private final int[] red, green, blue, alpha, counts; // the sums of each channel and the count of the background pixels of each column of the window rows
+
+	private final int[] band, bandDeviations; // the row which enters or leaves the window and its deviations from the global background
+
+	/**
+	 * @param pixels       the image reader
+	 * @param background   the global background color as array[4] (red, green, blue, alpha)
+	 * @param minDeviation the min deviation value
+	 */
+	public AdaptiveThreshold(PixelReader pixels, int[] background, int minDeviation) {
+		this.pixels = pixels;
+		this.background = background;
+		this.minDeviation = minDeviation;
+
+		width = pixels.width;
+		height = pixels.height;
+
+		red = new int[width];
+		green = new int[width];
+		blue = new int[width];
+		alpha = new int[width];
+		counts = new int[width];
+
+		band = new int[width];
+		bandDeviations = new int[width];
+	}
+
+	/**
+	 * Generates the bit map of the image.
+	 * Map value is true if the pixel's deviation from the local background is bigger or equal to min deviation.
+	 *
+	 * @param radius the radius of the window. The window of a pixel is (2 * radius + 1) x (2 * radius + 1) pixels
+	 * @return the map
+	 */
+	public BitMap threshold(int radius) {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.THRESHOLD);
+
+		final BitMap map = new BitMap(width, height);
+
+		final int[] row = new int[width], deviations = new int[width];
+
+		// the sums of the background pixels of the window rows in the columns left of x. The index is x
+		final long[] redSums = new long[width + 1], greenSums = new long[width + 1], blueSums = new long[width + 1], alphaSums = new long[width + 1];
+		final int[] countSums = new int[width + 1];
+
+		Arrays.fill(red, 0); // the sums of the previous threshold
+		Arrays.fill(green, 0);
+		Arrays.fill(blue, 0);
+		Arrays.fill(alpha, 0);
+		Arrays.fill(counts, 0);
+
+		int added = 0, removed = 0; // the rows [removed, added) are in the column sums
+
+		for (int y = 0; y < height; ++y) {
+			for (final int bottom = Math.min(y + radius + 1, height); added < bottom; ++added) {
+				addRow(added, 1);
+			}
+			for (final int top = Math.max(y - radius, 0); removed < top; ++removed) {
+				addRow(removed, -1);
+			}
+
+			for (int x = 0; x < width; ++x) {
+				redSums[x + 1] = redSums[x] + red[x];
+				greenSums[x + 1] = greenSums[x] + green[x];
+				blueSums[x + 1] = blueSums[x] + blue[x];
+				alphaSums[x + 1] = alphaSums[x] + alpha[x];
+				countSums[x + 1] = countSums[x] + counts[x];
+			}
+
+			pixels.readRow(y, row);
+
+			for (int x = 0; x < width; ++x) {
+				final int left = Math.max(x - radius, 0), right = Math.min(x + radius + 1, width);
+
+				final int count = countSums[right] - countSums[left];
+
+				final int pixel = row[x];
+
+				if (count == 0) { // the window is inside a silhouette
+					deviations[x] = Math.abs(((pixel >> 16) & 0xff) - background[0])
+							+ Math.abs(((pixel >> 8) & 0xff) - background[1])
+							+ Math.abs((pixel & 0xff) - background[2])
+							+ Math.abs((pixel >>> 24) - background[3]);
+				} else { // sum deviation of each channel from the mean of the window
+					deviations[x] = Math.abs(((pixel >> 16) & 0xff) - getMean(redSums, left, right, count))
+							+ Math.abs(((pixel >> 8) & 0xff) - getMean(greenSums, left, right, count))
+							+ Math.abs((pixel & 0xff) - getMean(blueSums, left, right, count))
+							+ Math.abs((pixel >>> 24) - getMean(alphaSums, left, right, count));
+				}
+			}
+
+			Deviations.packRow(deviations, width, minDeviation, map.words, y * map.wordsPerRow);
+		}
+
+		probe.stop(width, height, 0);
+
+		return map;
+	}
+
+	/**
+	 * Adds the background pixels of a row to the column sums or subtracts them.
+	 *
+	 * @param y    the row
+	 * @param sign 1 to add the row, -1 to subtract it
+	 */
+	private void addRow(int y, int sign) {
+		pixels.readRow(y, band);
+
+		Deviations.computeRow(band, width, background, bandDeviations);
+
+		for (int x = 0; x < width; ++x) {
+			if (bandDeviations[x] < minDeviation) {
+				final int pixel = band[x];
+
+				red[x] += sign * ((pixel >> 16) & 0xff);
+				green[x] += sign * ((pixel >> 8) & 0xff);
+				blue[x] += sign * (pixel & 0xff);
+				alpha[x] += sign * (pixel >>> 24);
+				counts[x] += sign;
+			}
+		}
+	}
+
+	/**
+	 * @param sums  the sums of the channel of the columns left of each x
+	 * @param left  the left column of the window
+	 * @param right the column right of the window
+	 * @param count the count of the background pixels of the window
+	 * @return the mean value of the channel in the window
+	 */
+	private static int getMean(long[] sums, int left, int right, int count) {
+		return (int) ((sums[right] - sums[left]) / count);
+	}
+}
@@ -0,0 +1,313 @@
+package scanner;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts silhouettes on many images in one JVM.
+ * <p>
+ * The images go through a pipeline: decode, threshold, crop and scan. The stages are connected by bounded queues,
+ * so only a few decoded images are kept in memory. The decode stage runs on its own I/O threads,
+ * and each CPU stage runs on the given count of threads.
+ * <p>
+ * Prints a line per image (CSV or JSON) in the order the images are finished.
+ */
+public class BatchScanner {
+	private static final int QUEUE_CAPACITY = 4; // the max count of images waiting between two stages
+
+	private static final Job END = new Job(-1, null); // the end of the input
+
+	private final int minDeviation, minSizeFactor, cropPower;
+	private final ScanMode scanMode;
+
+	private final int threads, ioThreads; // the count of threads of each CPU stage and of the decode stage
+
+	private final ThreadLocal<ScanContext> contexts = ThreadLocal.withInitial(ScanContext::new); // the buffers of each scan thread
+
+	public BatchScanner(int minDeviation, int minSizeFactor, int cropPower, ScanMode scanMode, int threads) {
+		this.minDeviation = minDeviation;
+		this.minSizeFactor = minSizeFactor;
+		this.cropPower = cropPower;
+		this.scanMode = scanMode;
+		this.threads = threads;
+
+		ioThreads = 2 * threads; // decoding waits for the disk, so it needs more threads
+	}
+
+	/**
+	 * Lists the images to scan.
+	 *
+	 * @param input the directory with images or the text file with a path per line
+	 * @return the list of images
+	 * @throws IOException if the input cannot be read
+	 */
+	public static List<File> listFiles(File input) throws IOException {
+		final List<File> files = new ArrayList<>();
+
+		if (input.isDirectory()) {
+			final Set<String> suffixes = new HashSet<>(Arrays.asList(ImageIO.getReaderFileSuffixes()));
+
+			final File[] children = input.listFiles();
+
+			if (children == null) {
+				throw new IOException("Cannot list directory \"" + input + "\"");
+			}
+
+			Arrays.sort(children);
+
+			for (File child : children) {
+				final String name = child.getName();
+				final String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+
+				if (child.isFile() && suffixes.contains(suffix)) {
+					files.add(child);
+				}
+			}
+		} else {
+			for (String line : Files.readAllLines(input.toPath(), StandardCharsets.UTF_8)) {
+				if (!line.trim().isEmpty()) {
+					files.add(new File(line.trim()));
+				}
+			}
+		}
+
+		return files;
+	}
+
+	/**
+	 * Scans the images and prints a line per image.
+	 *
+	 * @param files the images
+	 * @param out   the stream to print the results
+	 * @param json  print JSON lines if true, CSV lines otherwise
+	 * @return the time of the scan in nanoseconds
+	 * @throws InterruptedException if the thread is interrupted
+	 */
+	public long run(List<File> files, PrintStream out, boolean json) throws InterruptedException {
+		final long start = System.nanoTime();
+
+		final BlockingQueue<Job> input = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final BlockingQueue<Job> thresholded = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final BlockingQueue<Job> cropped = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final BlockingQueue<Job> scanned = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+		final ExecutorService io = Executors.newFixedThreadPool(ioThreads + 1); // +1 is the thread which feeds the input
+		final ExecutorService cpu = Executors.newFixedThreadPool(3 * threads); // 3 is the count of CPU stages
+
+		try {
+			io.execute(() -> {
+				try {
+					for (int i = 0; i < files.size(); ++i) {
+						input.put(new Job(i, files.get(i)));
+					}
+
+					input.put(END);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+
+			new Stage(ioThreads, input, decoded, job -> {
+				job.start = System.nanoTime();
+				job.image = Main.readImage(job.file);
+			}).start(io);
+
+			new Stage(threads, decoded, thresholded, job -> {
+				final PixelReader pixels = PixelReader.of(job.image);
+
+				job.map = Main.getSilhouettesMap(pixels, Main.getBackground(pixels), minDeviation);
+				job.image = null; // the image is not needed anymore
+			}).start(cpu);
+
+			new Stage(threads, thresholded, cropped, job -> {
+				if (cropPower > 0) {
+					final Metrics.Probe probe = Metrics.start(Metrics.Stage.CROP);
+
+					job.map = new DistanceMap(job.map).crop(cropPower); // the same as cropPower calls of cropMap
+
+					probe.stop(job.map.width, job.map.height, 0);
+				}
+			}).start(cpu);
+
+			new Stage(threads, cropped, scanned, job -> {
+				final int minSize = job.map.width * job.map.height / minSizeFactor; // it is easier to read the code with this variable
+
+				final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
+
+				job.silhouettes = scanMode.createScanner(job.map, minSize, contexts.get()).scan().size();
+
+				probe.stop(job.map.width, job.map.height, job.silhouettes);
+				job.map = null;
+			}).start(cpu);
+
+			if (!json) {
+				out.println("file,silhouettes,millis,error");
+			}
+
+			for (Job job = scanned.take(); job != END; job = scanned.take()) {
+				out.println(json ? job.toJSON() : job.toCSV());
+			}
+		} finally {
+			io.shutdownNow();
+			cpu.shutdownNow();
+		}
+
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Quotes a CSV value if it contains a comma, a quote or a line break.
+	 *
+	 * @param value the value
+	 * @return the value of the CSV line
+	 */
+	static String quote(String value) {
+		return value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0 ? value
+				: '"' + value.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Quotes a JSON string. The quotes, the backslashes and the control characters are escaped.
+	 *
+	 * @param value the value
+	 * @return the JSON string
+	 */
+	static String escape(String value) {
+		final StringBuilder builder = new StringBuilder(value.length() + 2).append('"');
+
+		for (int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) { // the control characters cannot be in a JSON string
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+
+		return builder.append('"').toString();
+	}
+
+	/**
+	 * The work of a stage.
+	 */
+	private interface Task {
+		void run(Job job) throws Exception;
+	}
+
+	/**
+	 * The workers which take the images from the input queue, process them and put them to the output queue.
+	 * The images with errors are passed without processing.
+	 */
+	private static class Stage {
+		private final int workers;
+
+		private final BlockingQueue<Job> input, output;
+
+		private final Task task;
+
+		private final AtomicInteger running; // the count of the workers which have not got the end of the input
+
+		private Stage(int workers, BlockingQueue<Job> input, BlockingQueue<Job> output, Task task) {
+			this.workers = workers;
+			this.input = input;
+			this.output = output;
+			this.task = task;
+
+			running = new AtomicInteger(workers);
+		}
+
+		private void start(ExecutorService executor) {
+			for (int i = 0; i < workers; ++i) {
+				executor.execute(this::work);
+			}
+		}
+
+		private void work() {
+			try {
+				while (true) {
+					final Job job = input.take();
+
+					if (job == END) {
+						input.put(END); // let the other workers know
+
+						if (running.decrementAndGet() == 0) { // the last worker ends the next stage
+							output.put(END);
+						}
+
+						return;
+					}
+
+					if (job.error == null) {
+						try {
+							task.run(job);
+						} catch (Exception | OutOfMemoryError | StackOverflowError e) { // the worker must live to pass the end of the input
+							job.error = e instanceof StackOverflowError ? "Stack overflow. You should increase the stack size"
+									: e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+							job.image = null;
+							job.map = null;
+						}
+					}
+
+					output.put(job);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * An image which goes through the pipeline.
+	 */
+	private static class Job {
+		private final int index; // the index of the image in the input
+		private final File file;
+
+		private long start; // the time the decode stage takes the image, so the wait in the input queue is not measured
+
+		private BufferedImage image;
+		private BitMap map;
+
+		private int silhouettes;
+		private String error;
+
+		private Job(int index, File file) {
+			this.index = index;
+			this.file = file;
+		}
+
+		private long getMillis() {
+			return (System.nanoTime() - start) / 1_000_000;
+		}
+
+		private String toCSV() {
+			return quote(file.getPath()) + ',' + (error == null ? silhouettes : "") + ',' + getMillis() + ',' + (error == null ? "" : quote(error));
+		}
+
+		private String toJSON() {
+			return "{\"index\":" + index + ",\"file\":" + escape(file.getPath())
+					+ (error == null ? ",\"silhouettes\":" + silhouettes : ",\"error\":" + escape(error))
+					+ ",\"millis\":" + getMillis() + '}';
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The compact map of an image. Stores one bit per pixel in row-major order.
+ * <p>
+ * Each row starts at a new long word, so the rows can be processed word by word.
+ * The bits after the end of a row are always zero.
+ */
+public class BitMap {
+	public final int width, height; // the dimensions of the map
+
+	final int wordsPerRow; // the count of words in a row
+	final long[] words; // the bits of the map. The bit of a pixel is (words[y * wordsPerRow + x / 64] >>> x % 64) & 1
+
+	public BitMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		wordsPerRow = (width + 63) >>> 6;
+		words = new long[wordsPerRow * height];
+	}
+
+	/**
+	 * Packs a map[x][y].
+	 *
+	 * @param map the map
+	 * @throws ArrayIndexOutOfBoundsException if map size is 0
+	 */
+	public BitMap(boolean[][] map) throws ArrayIndexOutOfBoundsException {
+		this(map.length, map[0].length);
+
+		for (int x = 0; x < width; ++x) {
+			for (int y = 0; y < height; ++y) {
+				if (map[x][y]) {
+					set(x, y);
+				}
+			}
+		}
+	}
+
+	public boolean get(int x, int y) {
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0; // the shift uses only the lowest 6 bits of x
+	}
+
+	public void set(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+	}
+
+	public void set(int x, int y, boolean value) {
+		if (value) {
+			set(x, y);
+		} else {
+			clear(x, y);
+		}
+	}
+
+	public void clear(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	/**
+	 * Clears all pixels.
+	 */
+	public void clear() {
+		Arrays.fill(words, 0);
+	}
+
+	/**
+	 * Finds the next set pixel in a row.
+	 *
+	 * @param x the x-coordinate to start from (inclusive)
+	 * @param y the row
+	 * @return the x-coordinate of the next set pixel or -1 if there is no one
+	 */
+	public int nextSetBit(int x, int y) {
+		if (x >= width) {
+			return -1;
+		}
+
+		final int rowStart = y * wordsPerRow, rowEnd = rowStart + wordsPerRow;
+
+		int i = rowStart + (x >>> 6);
+
+		long word = words[i] & (-1L << x); // skip the pixels before x
+
+		while (word == 0) { // skip the empty words
+			if (++i == rowEnd) {
+				return -1;
+			}
+
+			word = words[i];
+		}
+
+		return ((i - rowStart) << 6) + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * @return the count of set pixels
+	 */
+	public int cardinality() {
+		int count = 0;
+
+		for (long word : words) {
+			count += Long.bitCount(word);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Copies all pixels of another map of the same size.
+	 *
+	 * @param map the map to copy
+	 * @throws IllegalArgumentException if the sizes of the maps are different
+	 */
+	public void copyFrom(BitMap map) throws IllegalArgumentException {
+		if (map.width != width || map.height != height) {
+			throw new IllegalArgumentException("The maps have different sizes");
+		}
+
+		System.arraycopy(map.words, 0, words, 0, words.length);
+	}
+
+	/**
+	 * Unpacks the map.
+	 *
+	 * @return the map as array[x][y]
+	 */
+	public boolean[][] toArray() {
+		final boolean[][] map = new boolean[width][height];
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = nextSetBit(0, y); x >= 0; x = nextSetBit(x + 1, y)) {
+				map[x][y] = true;
+			}
+		}
+
+		return map;
+	}
+}
@@ -0,0 +1,149 @@
+package scanner;
+
+/**
+ * The deviation of each pixel of an image from the background color and the histogram of the deviations.
+ * <p>
+ * It is computed once per image, so the image can be thresholded with any min deviation using a single compare per pixel,
+ * and the count of the silhouettes' pixels for any min deviation is known without thresholding.
+ */
+public class DeviationMap {
+	public static final int MAX_DEVIATION = 1020; // 1020 = 255 * 4 (255 is max channel value, 4 is channels count)
+
+	public final int width, height; // the dimensions of the image
+
+	final short[] deviations; // the deviation of each pixel (0..MAX_DEVIATION). The index of a pixel is y * width + x
+
+	private final int[] histogram; // the count of the pixels of each deviation
+	private final int[] counts; // the count of the pixels which deviation is bigger or equal to the index
+
+	/**
+	 * Computes the deviations of an image.
+	 *
+	 * @param pixels     the image reader
+	 * @param background the background color as array[4] (red, green, blue, alpha)
+	 */
+	public DeviationMap(PixelReader pixels, int[] background) {
+		width = pixels.width;
+		height = pixels.height;
+
+		deviations = new short[width * height];
+		histogram = new int[MAX_DEVIATION + 1];
+
+		final int[] row = new int[width], rowDeviations = new int[width];
+
+		for (int y = 0, i = 0; y < height; ++y) {
+			pixels.readRow(y, row);
+
+			Deviations.computeRow(row, width, background, rowDeviations); // sum deviation of each channel
+
+			for (int x = 0; x < width; ++x, ++i) {
+				final int deviation = rowDeviations[x];
+
+				deviations[i] = (short) deviation;
+
+				++histogram[deviation];
+			}
+		}
+
+		counts = getCounts(histogram);
+	}
+
+	/**
+	 * Restores the deviations of an image, for example from a cache (see {@link ScanCache}).
+	 *
+	 * @param width      the width of the image
+	 * @param height     the height of the image
+	 * @param deviations the deviation of each pixel. The index of a pixel is y * width + x
+	 */
+	DeviationMap(int width, int height, short[] deviations) {
+		this.width = width;
+		this.height = height;
+		this.deviations = deviations;
+
+		histogram = new int[MAX_DEVIATION + 1];
+
+		for (short deviation : deviations) {
+			++histogram[deviation];
+		}
+
+		counts = getCounts(histogram);
+	}
+
+	/**
+	 * @param histogram the count of the pixels of each deviation
+	 * @return the count of the pixels which deviation is bigger or equal to the index as array[MAX_DEVIATION + 2]
+	 */
+	private static int[] getCounts(int[] histogram) {
+		final int[] counts = new int[MAX_DEVIATION + 2];
+
+		for (int deviation = MAX_DEVIATION; deviation >= 0; --deviation) {
+			counts[deviation] = counts[deviation + 1] + histogram[deviation];
+		}
+
+		return counts;
+	}
+
+	/**
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @return the deviation of the pixel
+	 */
+	public int getDeviation(int x, int y) {
+		return deviations[y * width + x];
+	}
+
+	/**
+	 * @return the count of the pixels of each deviation as array[MAX_DEVIATION + 1]
+	 */
+	public int[] getHistogram() {
+		return histogram.clone();
+	}
+
+	/**
+	 * Counts the silhouettes' pixels without thresholding.
+	 *
+	 * @param minDeviation the min deviation value
+	 * @return the count of the pixels which deviation is bigger or equal to min deviation
+	 */
+	public int countPixels(int minDeviation) {
+		return counts[Math.max(0, Math.min(minDeviation, MAX_DEVIATION + 1))];
+	}
+
+	/**
+	 * Generates the bit map of the image.
+	 * Map value is true if the pixel's deviation is bigger or equal to min deviation.
+	 *
+	 * @param minDeviation the min deviation value
+	 * @return the map
+	 */
+	public BitMap threshold(int minDeviation) {
+		return threshold(minDeviation, new BitMap(width, height));
+	}
+
+	/**
+	 * Generates the bit map of the image into an existing map.
+	 *
+	 * @param minDeviation the min deviation value
+	 * @param map          the map of the same size to write the result
+	 * @return the map
+	 */
+	public BitMap threshold(int minDeviation, BitMap map) {
+		for (int y = 0; y < height; ++y) {
+			final int row = y * map.wordsPerRow;
+
+			for (int x = 0, k = row, i = y * width; x < width; x += 64, ++k, i += 64) {
+				final int end = Math.min(64, width - x);
+
+				long word = 0;
+
+				for (int j = 0; j < end; ++j) { // no branches, so the loop can be vectorized
+					word |= (long) ((minDeviation - 1 - deviations[i + j]) >>> 31) << j; // the sign bit is set if the deviation >= min deviation
+				}
+
+				map.words[k] = word;
+			}
+		}
+
+		return map;
+	}
+}
@@ -0,0 +1,76 @@
+package scanner;
+
+/**
+ * Computes the deviations of the pixels of a row from the background color and packs the map bits of the row.
+ * <p>
+ * The work is split into simple loops over flat arrays, so the JIT compiler can vectorize them (SSE, AVX2 or AVX-512):
+ * the deviation loop uses only shifts, masks, subtractions, abs and additions of ints, and the packing loop has no branches.
+ * The fused scalar loop is kept in the benchmarks (PipelineBenchmark.getSilhouettesMapScalar) for comparison.
+ */
+final class Deviations {
+	private Deviations() {
+	}
+
+	/**
+	 * Computes the deviation of each pixel of a row: the sum of the absolute differences of its channels and the background channels.
+	 *
+	 * @param row        the pixels of the row as ARGB integers
+	 * @param width      the width of the row
+	 * @param background the background color as array[4] (red, green, blue, alpha)
+	 * @param deviations the deviations of the pixels (0..1020)
+	 */
+	static void computeRow(int[] row, int width, int[] background, int[] deviations) {
+		final int red = background[0], green = background[1], blue = background[2], alpha = background[3];
+
+		for (int x = 0; x < width; ++x) { // the loop is vectorized
+			final int pixel = row[x];
+
+			deviations[x] = Math.abs(((pixel >> 16) & 0xff) - red)
+					+ Math.abs(((pixel >> 8) & 0xff) - green)
+					+ Math.abs((pixel & 0xff) - blue)
+					+ Math.abs((pixel >>> 24) - alpha);
+		}
+	}
+
+	/**
+	 * Packs the map bits of a row. The bit of a pixel is set if the pixel's deviation is bigger or equal to min deviation.
+	 *
+	 * @param deviations   the deviations of the pixels of the row
+	 * @param width        the width of the row
+	 * @param minDeviation the min deviation value
+	 * @param words        the words to write the bits (see {@link BitMap})
+	 * @param offset       the index of the first word of the row
+	 */
+	static void packRow(int[] deviations, int width, int minDeviation, long[] words, int offset) {
+		final int threshold = minDeviation - 1;
+
+		for (int x = 0, k = offset; x < width; x += 64, ++k) {
+			final int end = Math.min(x + 64, width);
+
+			long word = 0;
+
+			for (int i = x; i < end; ++i) {
+				word |= (long) ((threshold - deviations[i]) >>> 31) << i; // the sign bit is set if the deviation >= min deviation. The shift uses i % 64
+			}
+
+			words[k] = word;
+		}
+	}
+
+	/**
+	 * Packs the map bits of a row of pixels.
+	 * The bit of a pixel is set if the pixel's deviation is bigger or equal to min deviation.
+	 *
+	 * @param row          the pixels of the row as ARGB integers
+	 * @param width        the width of the row
+	 * @param background   the background color as array[4] (red, green, blue, alpha)
+	 * @param minDeviation the min deviation value
+	 * @param deviations   the buffer of the deviations of the row (its length is at least width)
+	 * @param words        the words to write the bits (see {@link BitMap})
+	 * @param offset       the index of the first word of the row
+	 */
+	static void thresholdRow(int[] row, int width, int[] background, int minDeviation, int[] deviations, long[] words, int offset) {
+		computeRow(row, width, background, deviations);
+		packRow(deviations, width, minDeviation, words, offset);
+	}
+}
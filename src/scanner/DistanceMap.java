@@ -0,0 +1,134 @@
+package scanner;
+
+/**
+ * The distance from each silhouette's pixel to the nearest background pixel.
+ * <p>
+ * The distance is measured in the chessboard metric (8 neighbours), and the pixels outside the image are background.
+ * A pixel is kept by n calls of {@link Main#cropMap(BitMap)} if and only if its distance is bigger than n,
+ * so the map can be cropped with any crop power without recomputation.
+ */
+public class DistanceMap {
+	public final int width, height; // the dimensions of the map
+
+	private final short[] distances; // the distance of each pixel (saturated to Short.MAX_VALUE). The index of a pixel is y * width + x
+
+	/**
+	 * Computes the distances using two raster passes (chamfer distance transform).
+	 *
+	 * @param map the map
+	 */
+	public DistanceMap(BitMap map) {
+		this(map.width, map.height);
+
+		compute(map);
+	}
+
+	/**
+	 * Creates the distances of an empty map, so they can be computed again for each map of the same size.
+	 *
+	 * @param width  the width of the maps
+	 * @param height the height of the maps
+	 */
+	public DistanceMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		distances = new short[width * height];
+	}
+
+	/**
+	 * Computes the distances of another map of the same size.
+	 *
+	 * @param map the map
+	 * @throws IllegalArgumentException if the map has another size
+	 */
+	public void compute(BitMap map) throws IllegalArgumentException {
+		if (map.width != width || map.height != height) {
+			throw new IllegalArgumentException("The map is " + map.width + "x" + map.height + ", but the distances are " + width + "x" + height);
+		}
+
+		// the forward pass: use the left and the upper neighbours
+		for (int y = 0, i = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x, ++i) {
+				if (!map.get(x, y)) {
+					distances[i] = 0; // the background distance is 0
+
+					continue;
+				}
+
+				int min = 0; // the pixels outside the image are background
+
+				if (x > 0 && y > 0 && x < width - 1) {
+					min = Math.min(Math.min(distances[i - 1], distances[i - width - 1]), Math.min(distances[i - width], distances[i - width + 1]));
+				}
+
+				distances[i] = (short) Math.min(min + 1, Short.MAX_VALUE);
+			}
+		}
+
+		// the backward pass: use the right and the lower neighbours
+		for (int y = height - 1, i = width * height - 1; y >= 0; --y) {
+			for (int x = width - 1; x >= 0; --x, --i) {
+				if (distances[i] <= 1) {
+					continue; // the background and the edge pixels cannot be closer
+				}
+
+				int min = 0;
+
+				if (x < width - 1 && y < height - 1 && x > 0) {
+					min = Math.min(Math.min(distances[i + 1], distances[i + width + 1]), Math.min(distances[i + width], distances[i + width - 1]));
+				}
+
+				distances[i] = (short) Math.min(distances[i], min + 1);
+			}
+		}
+	}
+
+	/**
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @return the distance from the pixel to the nearest background pixel. 0 if the pixel is background
+	 */
+	public int getDistance(int x, int y) {
+		return distances[y * width + x];
+	}
+
+	/**
+	 * Crops the map the same way as cropPower calls of {@link Main#cropMap(BitMap)}.
+	 *
+	 * @param cropPower the crop power
+	 * @return the cropped map
+	 */
+	public BitMap crop(int cropPower) {
+		return crop(cropPower, new BitMap(width, height));
+	}
+
+	/**
+	 * Crops the map into another map of the same size. All cells of the result are overwritten.
+	 *
+	 * @param cropPower the crop power
+	 * @param result    the cropped map
+	 * @return the result
+	 */
+	public BitMap crop(int cropPower, BitMap result) {
+		for (int y = 0, i = 0; y < height; ++y) {
+			final int row = y * result.wordsPerRow;
+
+			long word = 0;
+
+			for (int x = 0; x < width; ++x, ++i) {
+				if (distances[i] > cropPower) {
+					word |= 1L << x; // the shift uses only the lowest 6 bits of x
+				}
+
+				if ((x & 63) == 63 || x == width - 1) { // the word is full or the row is ended
+					result.words[row + (x >>> 6)] = word;
+
+					word = 0;
+				}
+			}
+		}
+
+		return result;
+	}
+}
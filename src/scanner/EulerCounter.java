@@ -0,0 +1,117 @@
+package scanner;
+
+/**
+ * Counts silhouettes of a map which is given row by row using the Euler number (Gray's bit-quads).
+ * <p>
+ * The Euler number is the count of the silhouettes minus the count of their holes. It is defined by the counts of the 2 x 2 quads
+ * of the map: the quads with one set cell (Q1), with three set cells (Q3) and with two diagonal cells (QD).
+ * The silhouettes are 4-connected, so the Euler number is (Q1 - Q3 + 2 * QD) / 4.
+ * The quads of 64 columns are counted at once using the packed rows, so no labels, queue or checked map are needed.
+ * <p>
+ * The holes are not known, so the runs which have no set cell above them (the top runs) are also counted:
+ * a silhouette has at least one top run, so the count of the silhouettes is between the Euler number and the count of the top runs.
+ * If they are equal the map has no holes and the count is exact, otherwise the map has to be labeled (see {@link #count()}).
+ * Only the previous row is kept, so the memory depends only on the width of the map.
+ */
+final class EulerCounter {
+	private final int wordsPerRow;
+
+	private final long[] previous; // the previous row
+	private final long[] empty; // the row after the last row
+
+	private long quads1, quads3, diagonals; // the counts of the quads with one cell, with three cells and with two diagonal cells
+	private long topRuns; // the count of the runs which have no set cell above them
+
+	EulerCounter(int width) {
+		wordsPerRow = (width + 63) >>> 6;
+
+		previous = new long[wordsPerRow];
+		empty = new long[wordsPerRow];
+	}
+
+	/**
+	 * Adds the next row of the map.
+	 *
+	 * @param words  the packed row (see {@link BitMap})
+	 * @param offset the index of the first word of the row
+	 */
+	void addRow(long[] words, int offset) {
+		addQuads(words, offset);
+
+		long carry = 0; // the carry of the sum of the row and its cells under the set cells
+		long last = 0; // the previous word of the row
+
+		for (int k = 0; k < wordsPerRow; ++k) {
+			final long word = words[offset + k];
+			final long touched = word & previous[k]; // the cells under the set cells of the previous row
+
+			// adding a cell to its run clears the cells after it and sets the cell after the run, so each touched run sets a cell
+			final long sum = word + touched + carry;
+
+			topRuns += Long.bitCount(word & ~(word << 1 | last >>> 63)) - Long.bitCount(sum & ~word);
+
+			carry = ((word & touched) | ((word | touched) & ~sum)) >>> 63;
+			last = word;
+		}
+
+		topRuns -= carry; // the touched run ends at the end of the last word
+
+		System.arraycopy(words, offset, previous, 0, wordsPerRow);
+	}
+
+	/**
+	 * Adds the quads between the previous row and the next row. The quads are between the columns x - 1 and x,
+	 * so the columns are from 0 to the width inclusive: the cells outside the map are background.
+	 */
+	private void addQuads(long[] words, int offset) {
+		long lastUpper = 0, lastLower = 0; // the previous words of the rows
+
+		for (int k = 0; k <= wordsPerRow; ++k) { // the last column can be in the word after the row
+			final long upper = k < wordsPerRow ? previous[k] : 0, lower = k < wordsPerRow ? words[offset + k] : 0;
+
+			if ((upper | lower | lastUpper | lastLower) != 0) {
+				final long upperLeft = upper << 1 | lastUpper >>> 63, lowerLeft = lower << 1 | lastLower >>> 63; // the cells of the column x - 1
+
+				final long odd = upperLeft ^ upper ^ lowerLeft ^ lower; // one or three cells
+				final long three = odd & ((upperLeft & upper) | (lowerLeft & lower)); // a row of the quad has both cells
+
+				quads1 += Long.bitCount(odd & ~three);
+				quads3 += Long.bitCount(three);
+				diagonals += Long.bitCount((upperLeft ^ upper) & (lowerLeft ^ lower) & (upperLeft ^ lowerLeft));
+			}
+
+			lastUpper = upper;
+			lastLower = lower;
+		}
+	}
+
+	/**
+	 * Adds the quads of the last row. Must be called once after all rows are added.
+	 */
+	void finish() {
+		addQuads(empty, 0);
+	}
+
+	/**
+	 * @return the count of the silhouettes minus the count of their holes
+	 */
+	long getEulerNumber() {
+		return (quads1 - quads3 + 2 * diagonals) / 4;
+	}
+
+	/**
+	 * @return the count of the runs which have no set cell above them. It is not smaller than the count of the silhouettes
+	 */
+	long getTopRunsCount() {
+		return topRuns;
+	}
+
+	/**
+	 * Counts the silhouettes of the finished map.
+	 *
+	 * @return the silhouettes count, -1 if the map may have holes (or silhouettes with several top runs), so it has to be labeled
+	 */
+	int count() {
+		return getEulerNumber() == topRuns ? (int) topRuns : -1;
+	}
+}
@@ -1,6 +1,6 @@
 package scanner;
 
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Contains the similarities of the DFS and BDF algorithm's implementations.
@@ -8,14 +8,144 @@ import java.util.List;
 public abstract class ImageScanner {
 	public int minSize; // the min size of the silhouette
 
-	public boolean[][] map, checked; // the map to scan and the array of checked cells
+	public BitMap map, checked; // the map to scan and the map of checked cells
 
-	protected int size; // the size of the current silhouette
+	protected final ScanContext context; // the buffers which are kept between scans
 
-	public ImageScanner(boolean[][] map, int minSize) {
+	protected Silhouettes silhouettes; // the result of the current scan
+	protected int current; // the index of the current silhouette
+
+	protected boolean labeling; // produce the label image
+	protected int[] labels; // the label image (or the working labels of the scanner). The index of a cell is y * width + x
+
+	public ImageScanner(BitMap map, int minSize) {
+		this(map, minSize, new ScanContext());
+	}
+
+	public ImageScanner(BitMap map, int minSize, ScanContext context) {
 		this.map = map;
 		this.minSize = minSize;
+		this.context = context;
+	}
+
+	/**
+	 * Scans the image for silhouettes.
+	 *
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result is changed by the next scan
+	 */
+	public abstract Silhouettes scan();
+
+	/**
+	 * Sets if the scan produces the label image (see {@link #getLabels()}).
+	 *
+	 * @param labeling true to produce the label image
+	 */
+	public void setLabeling(boolean labeling) {
+		this.labeling = labeling;
+	}
+
+	/**
+	 * Gets the label image of the last scan. The label of a cell is the index of its silhouette + 1,
+	 * the label of the background and of the silhouettes which are smaller than min size is 0.
+	 * The array is changed by the next scan.
+	 *
+	 * @return the label of each cell (the index of a cell is y * width + x) or null if the labeling is off
+	 */
+	public int[] getLabels() {
+		return labeling ? labels : null;
+	}
+
+	/**
+	 * Adds a cell to the current silhouette.
+	 *
+	 * @param x the x-coordinate of the cell
+	 * @param y the y-coordinate of the cell
+	 */
+	protected void addCell(int x, int y) {
+		if (silhouettes != null) { // the cells can be filled without a scan
+			silhouettes.addCell(current, x, y, getEdges(x, y));
+
+			if (labeling) {
+				labels[y * map.width + x] = current + 1;
+			}
+		}
+	}
+
+	/**
+	 * Prepares the label image for a scan of the whole map.
+	 */
+	protected void clearLabels() {
+		labels = context.getLabels(map.width * map.height);
+
+		Arrays.fill(labels, 0);
+	}
+
+	/**
+	 * Changes the labels of the silhouettes of the label image after the filter.
+	 *
+	 * @param newLabels the new label of each old label - 1 (see {@link Silhouettes#filter(int)})
+	 */
+	protected void relabel(int[] newLabels) {
+		for (int i = 0; i < labels.length; ++i) {
+			if (labels[i] != 0) {
+				labels[i] = newLabels[labels[i] - 1];
+			}
+		}
+	}
+
+	/**
+	 * Counts the sides of a cell which are on the perimeter of its silhouette.
+	 *
+	 * @param x the x-coordinate of the cell
+	 * @param y the y-coordinate of the cell
+	 * @return the count of the neighbours (left, right, upper and lower) which are background or outside the image
+	 */
+	protected int getEdges(int x, int y) {
+		int edges = 4;
+
+		if (x > 0 && map.get(x - 1, y)) {
+			--edges;
+		}
+		if (x < map.width - 1 && map.get(x + 1, y)) {
+			--edges;
+		}
+		if (y > 0 && map.get(x, y - 1)) {
+			--edges;
+		}
+		if (y < map.height - 1 && map.get(x, y + 1)) {
+			--edges;
+		}
+
+		return edges;
 	}
 
-	public abstract List<Integer[]> scan();
+	/**
+	 * Finds the next cell of a row which is a silhouette's cell and is unchecked.
+	 * Skips 64 cells at a time if they are background or checked.
+	 *
+	 * @param x the x-coordinate to start from (inclusive)
+	 * @param y the row
+	 * @return the x-coordinate of the cell or -1 if there is no one
+	 */
+	protected int nextUnchecked(int x, int y) {
+		if (x >= map.width) {
+			return -1;
+		}
+
+		final int rowStart = y * map.wordsPerRow, rowEnd = rowStart + map.wordsPerRow;
+
+		int i = rowStart + (x >>> 6);
+
+		long word = map.words[i] & ~checked.words[i] & (-1L << x); // skip the cells before x
+
+		while (word == 0) {
+			if (++i == rowEnd) {
+				return -1;
+			}
+
+			word = map.words[i] & ~checked.words[i];
+		}
+
+		return ((i - rowStart) << 6) + Long.numberOfTrailingZeros(word);
+	}
 }
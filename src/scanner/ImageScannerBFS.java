@@ -1,50 +1,55 @@
 package scanner;
 
-import java.util.ArrayDeque;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Queue;
-
 public class ImageScannerBFS extends ImageScanner {
-	private Queue<Integer> queueX, queueY;
+	private int[] queue; // the ring buffer of the cells to scan. The index of a cell is y * width + x
+	private int head, tail; // the count of the polled and of the offered cells. The index in the ring buffer is count & (capacity - 1)
 
-	public ImageScannerBFS(boolean[][] map, int minSize) {
+	public ImageScannerBFS(BitMap map, int minSize) {
 		super(map, minSize);
 	}
 
+	public ImageScannerBFS(BitMap map, int minSize, ScanContext context) {
+		super(map, minSize, context);
+	}
+
 	/**
 	 * Scans the image for silhouettes.
 	 *
-	 * @return the list of the left-upper cells of silhouettes. Cell coordinates as array[]{x, y}
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result is changed by the next scan
 	 */
 	@Override
-	public List<Integer[]> scan() {
-		final int width = map.length, height = map[0].length; // the dimensions of the image
+	public Silhouettes scan() {
+		final int height = map.height; // the height of the image
 
-		checked = new boolean[map.length][map[0].length]; // reset the checked array
+		checked = context.getChecked(map.width, map.height); // reset the checked map
 
-		queueX = new ArrayDeque<>();
-		queueY = new ArrayDeque<>();
+		queue = context.getQueue();
 
-		size = 0;
+		silhouettes = context.silhouettes;
 
-		final List<Integer[]> result = new ArrayList<>(); // list of the left-upper cells of silhouettes
+		silhouettes.clear();
 
-		for (int x = 0; x < width; ++x) {
-			for (int y = 0; y < height; ++y) {
-				if (map[x][y] && !checked[x][y]) {
-					scan(x, y);
+		if (labeling) {
+			clearLabels();
+		}
 
-					if (size >= minSize) { // filter noise and small objects
-						result.add(new Integer[]{x, y});
-					}
+		for (int y = 0; y < height; ++y) {
+			for (int x = nextUnchecked(0, y); x >= 0; x = nextUnchecked(x + 1, y)) { // skip the background and checked cells
+				current = silhouettes.add();
 
-					size = 0;
+				scan(x, y);
+
+				if (silhouettes.getArea(current) < minSize && !labeling) { // filter noise and small objects
+					silhouettes.removeLast();
 				}
 			}
 		}
 
-		return result;
+		if (labeling) { // the cells of the small silhouettes are labeled already, so they are filtered after the scan
+			relabel(silhouettes.filter(minSize));
+		}
+
+		return silhouettes;
 	}
 
 	/**
@@ -54,18 +59,27 @@ public class ImageScannerBFS extends ImageScanner {
 	 * @param y the y-coordinate
 	 * @throws ArrayIndexOutOfBoundsException if image size is 0
 	 */
-	public void scan(Integer x, Integer y) throws ArrayIndexOutOfBoundsException {
+	public void scan(int x, int y) throws ArrayIndexOutOfBoundsException {
+		final int width = map.width;
+
+		head = tail = 0;
+
 		addToQueue(x, y);
 
-		while ((x = queueX.poll()) != null) {
-			y = queueY.poll();
+		while (head != tail) {
+			final int cell = queue[head++ & (queue.length - 1)];
+
+			y = cell / width;
+			x = cell - y * width;
+
+			addCell(x, y);
 
 			// scan left cell
 			if (x > 0) {
 				addToQueue(x - 1, y);
 			}
 			// scan right cell
-			if (x < map.length - 1) {
+			if (x < map.width - 1) {
 				addToQueue(x + 1, y);
 			}
 			// scan upper cell
@@ -73,7 +87,7 @@ public class ImageScannerBFS extends ImageScanner {
 				addToQueue(x, y - 1);
 			}
 			// scan lower cell
-			if (y < map[0].length - 1) {
+			if (y < map.height - 1) {
 				addToQueue(x, y + 1);
 			}
 		}
@@ -87,13 +101,19 @@ public class ImageScannerBFS extends ImageScanner {
 	 * @param y the y-coordinate of a cell
 	 */
 	private void addToQueue(int x, int y) {
-		if (map[x][y] && !checked[x][y]) {
-			queueX.offer(x);
-			queueY.offer(y);
+		if (map.get(x, y) && !checked.get(x, y)) {
+			if (tail - head == queue.length) { // the ring buffer is full
+				final int count = queue.length;
+
+				queue = context.growQueue(head & (count - 1));
+
+				head = 0;
+				tail = count;
+			}
 
-			checked[x][y] = true;
+			queue[tail++ & (queue.length - 1)] = y * map.width + x;
 
-			++size;
+			checked.set(x, y);
 		}
 	}
 }
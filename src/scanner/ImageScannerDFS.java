@@ -1,46 +1,53 @@
 package scanner;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Scan an image using depth-first search.
  */
 public class ImageScannerDFS extends ImageScanner {
-	public ImageScannerDFS(boolean[][] map, int minSize) {
+	public ImageScannerDFS(BitMap map, int minSize) {
 		super(map, minSize);
 	}
 
+	public ImageScannerDFS(BitMap map, int minSize, ScanContext context) {
+		super(map, minSize, context);
+	}
+
 	/**
 	 * Scans the image for silhouettes.
 	 *
-	 * @return the list of the left-upper cells of silhouettes. Cell coordinates as array[]{x, y}
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result is changed by the next scan
 	 */
 	@Override
-	public List<Integer[]> scan() {
-		final int width = map.length, height = map[0].length; // the dimensions of the image
+	public Silhouettes scan() {
+		final int height = map.height; // the height of the image
 
-		checked = new boolean[map.length][map[0].length]; // reset the checked array
+		checked = context.getChecked(map.width, map.height); // reset the checked map
 
-		size = 0; // reset the size of the current silhouette
+		silhouettes = context.silhouettes;
 
-		final List<Integer[]> result = new ArrayList<>(); // list of the left-upper cells of silhouettes
+		silhouettes.clear();
 
-		for (int x = 0; x < width; ++x) {
-			for (int y = 0; y < height; ++y) {
-				if (map[x][y] && !checked[x][y]) {
-					scan(x, y);
+		if (labeling) {
+			clearLabels();
+		}
 
-					if (size >= minSize) { // filter noise and small objects
-						result.add(new Integer[]{x, y});
-					}
+		for (int y = 0; y < height; ++y) {
+			for (int x = nextUnchecked(0, y); x >= 0; x = nextUnchecked(x + 1, y)) { // skip the background and checked cells
+				current = silhouettes.add();
 
-					size = 0;
+				scan(x, y);
+
+				if (silhouettes.getArea(current) < minSize && !labeling) { // filter noise and small objects
+					silhouettes.removeLast();
 				}
 			}
 		}
 
-		return result;
+		if (labeling) { // the cells of the small silhouettes are labeled already, so they are filtered after the scan
+			relabel(silhouettes.filter(minSize));
+		}
+
+		return silhouettes;
 	}
 
 	/**
@@ -51,15 +58,15 @@ public class ImageScannerDFS extends ImageScanner {
 	 * @throws ArrayIndexOutOfBoundsException if image size is 0
 	 */
 	public void scan(int x, int y) throws ArrayIndexOutOfBoundsException {
-		if (map[x][y] && !checked[x][y]) { // if the cell is a silhouette's cell and it is unchecked
-			checked[x][y] = true; // mark the cell as checked
+		if (map.get(x, y) && !checked.get(x, y)) { // if the cell is a silhouette's cell and it is unchecked
+			checked.set(x, y); // mark the cell as checked
 
 			// scan left cell
 			if (x > 0) {
 				scan(x - 1, y);
 			}
 			// scan right cell
-			if (x < map.length - 1) {
+			if (x < map.width - 1) {
 				scan(x + 1, y);
 			}
 			// scan upper cell
@@ -67,11 +74,11 @@ public class ImageScannerDFS extends ImageScanner {
 				scan(x, y - 1);
 			}
 			// scan lower cell
-			if (y < map[0].length - 1) {
+			if (y < map.height - 1) {
 				scan(x, y + 1);
 			}
 
-			++size;
+			addCell(x, y);
 		}
 	}
 }
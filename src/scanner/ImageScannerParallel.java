@@ -0,0 +1,309 @@
+package scanner;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Scan an image on several cores.
+ * <p>
+ * The map is split into horizontal stripes. Each stripe is labeled with union-find on a fork-join pool,
+ * then the labels are merged across the stripe seams. The size filter is applied after the merge,
+ * so the result is the same as the result of the sequential scanners.
+ * <p>
+ * In the incremental mode (see {@link #setIncremental(boolean)}) the scanner is used for a sequence of similar maps,
+ * for example the frames of a video: the stripes which are the same as in the previous map are not labeled again,
+ * their parts of the silhouettes are carried forward, and only the seams are merged again.
+ */
+public class ImageScannerParallel extends ImageScanner {
+	private static final int MIN_STRIPE_HEIGHT = 16; // the min count of rows in a stripe
+	private static final int INCREMENTAL_STRIPE_HEIGHT = 32; // the count of rows in a stripe in the incremental mode. The smaller the stripes the less is labeled again
+
+	private final ForkJoinPool pool;
+
+	// the buffers which are kept between scans of the same height
+	private Stripe[] stripes;
+	private int[] offsets, joins;
+
+	private boolean incremental; // label only the changed stripes
+	private long[] previous = new long[0]; // the words of the previous map in the incremental mode
+	private int previousWidth; // the width of the previous map. The same words of a map of another width are other cells
+	private int scannedStripes; // the count of the stripes which were labeled by the last scan
+	private boolean relabeled; // the last scan replaced the provisional labels of the stripes with the final labels
+
+	private final RecursiveAction invokeStripes = new RecursiveAction() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			invokeAll(stripes);
+		}
+	};
+
+	public ImageScannerParallel(BitMap map, int minSize) {
+		this(map, minSize, ForkJoinPool.commonPool());
+	}
+
+	public ImageScannerParallel(BitMap map, int minSize, ForkJoinPool pool) {
+		this(map, minSize, pool, new ScanContext());
+	}
+
+	public ImageScannerParallel(BitMap map, int minSize, ForkJoinPool pool, ScanContext context) {
+		super(map, minSize, context);
+
+		this.pool = pool;
+	}
+
+	/**
+	 * Sets the incremental mode. The next scans label only the stripes which are changed since the previous scan.
+	 * The map can be replaced between the scans (see {@link #map}), and the context must not be used by other scanners.
+	 * The label image is not supported: the stripes are labeled again if the labeling is on, and after a scan with the labeling on.
+	 *
+	 * @param incremental true to label only the changed stripes
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+
+		stripes = null; // the stripes of the other height
+	}
+
+	/**
+	 * @return the count of the stripes which were labeled by the last scan
+	 */
+	public int getScannedStripes() {
+		return scannedStripes;
+	}
+
+	/**
+	 * @return the count of the stripes of the last scan
+	 */
+	public int getStripesCount() {
+		return stripes == null ? 0 : stripes.length;
+	}
+
+	/**
+	 * Scans the image for silhouettes.
+	 *
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result is changed by the next scan
+	 */
+	@Override
+	public Silhouettes scan() {
+		final int width = map.width, height = map.height; // the dimensions of the image
+
+		labels = context.getLabels(width * height); // the provisional label of each cell in its stripe
+
+		final int stripesCount = incremental ? Math.max(1, height / INCREMENTAL_STRIPE_HEIGHT)
+				: Math.max(1, Math.min(pool.getParallelism() * 4, height / MIN_STRIPE_HEIGHT)); // 4 stripes per core to balance the load
+
+		final int size = map.wordsPerRow * height;
+
+		boolean changed = labeling || relabeled || previous.length != size || previousWidth != width; // all stripes must be labeled
+
+		if (stripes == null || stripes.length != stripesCount || stripes[stripesCount - 1].toY != height) {
+			changed = true;
+
+			stripes = new Stripe[stripesCount];
+
+			for (int i = 0; i < stripesCount; ++i) {
+				stripes[i] = new Stripe(height * i / stripesCount, height * (i + 1) / stripesCount);
+			}
+
+			offsets = new int[stripesCount];
+		}
+
+		for (Stripe stripe : stripes) {
+			stripe.changed = !incremental || changed
+					|| !Arrays.equals(map.words, stripe.fromY * map.wordsPerRow, stripe.toY * map.wordsPerRow, previous, stripe.fromY * map.wordsPerRow, stripe.toY * map.wordsPerRow);
+		}
+
+		invokeStripes(false);
+
+		if (incremental) {
+			if (previous.length != size) {
+				previous = new long[size];
+			}
+
+			System.arraycopy(map.words, 0, previous, 0, size);
+
+			previousWidth = width;
+		}
+
+		// give the silhouettes of the stripes the global labels
+
+		final UnionFind sets = context.sets;
+
+		sets.clear();
+
+		for (int i = 0; i < stripesCount; ++i) {
+			offsets[i] = sets.size() - 1;
+
+			for (int j = 0; j < stripes[i].silhouettes.size(); ++j) {
+				sets.make();
+			}
+		}
+
+		if (joins == null || joins.length < sets.size()) {
+			joins = new int[sets.size() * 2]; // the count of the vertical pairs of cells at the seams of each label
+		} else {
+			Arrays.fill(joins, 0, sets.size(), 0);
+		}
+
+		// merge the silhouettes which touch each other at the seams
+		for (int i = 1; i < stripesCount; ++i) {
+			final int y = stripes[i].fromY; // the first row of the lower stripe
+
+			for (int x = 0, upper = (y - 1) * width, lower = y * width; x < width; ++x, ++upper, ++lower) {
+				if (labels[upper] != 0 && labels[lower] != 0) {
+					final int label = offsets[i - 1] + stripes[i - 1].getLocal(labels[upper]);
+
+					sets.union(label, offsets[i] + stripes[i].getLocal(labels[lower]));
+
+					++joins[label];
+				}
+			}
+		}
+
+		// merge the statistics of the parts of each silhouette. The parts are visited in the order of their first cells,
+		// so the silhouettes are added in the order of the sequential scanners
+		final Silhouettes result = silhouettes = context.silhouettes;
+
+		result.clear();
+
+		final int[] indices = context.getIndices(sets.size()); // the index of the silhouette of each root + 1. 0 if the root is not found yet
+
+		for (int i = 0; i < stripesCount; ++i) {
+			final Stripe stripe = stripes[i];
+
+			for (int j = 1; j <= stripe.silhouettes.size(); ++j) {
+				final int label = offsets[i] + j, root = sets.find(label);
+
+				if (indices[root] == 0) {
+					indices[root] = result.add() + 1;
+				}
+
+				result.merge(indices[root] - 1, stripe.silhouettes, j - 1);
+				result.addPerimeter(indices[root] - 1, -2 * joins[label]); // the joined cells hide a side each
+			}
+		}
+
+		final int[] newLabels = result.filter(minSize);
+
+		if (labeling) { // give the cells the labels of their silhouettes
+			for (int i = 0; i < stripesCount; ++i) {
+				final Stripe stripe = stripes[i];
+
+				final int count = stripe.silhouettes.size();
+
+				if (stripe.newLabels.length <= count) {
+					stripe.newLabels = new int[count * 2 + 1];
+				}
+
+				for (int j = 1; j <= count; ++j) {
+					stripe.newLabels[j] = newLabels[indices[sets.find(offsets[i] + j)] - 1];
+				}
+			}
+
+			invokeStripes(true);
+		}
+
+		relabeled = labeling; // the seams of the next scan need the provisional labels again
+
+		return result;
+	}
+
+	/**
+	 * Runs the stripes on the pool.
+	 *
+	 * @param relabeling give the cells the labels of their silhouettes if true, label the stripes otherwise
+	 */
+	private void invokeStripes(boolean relabeling) {
+		scannedStripes = 0;
+
+		for (Stripe stripe : stripes) {
+			stripe.relabeling = relabeling;
+
+			if (stripe.changed) {
+				++scannedStripes;
+			}
+
+			stripe.reinitialize(); // the tasks are reused
+		}
+
+		invokeStripes.reinitialize();
+
+		pool.invoke(invokeStripes);
+	}
+
+	/**
+	 * Labels the rows [fromY, toY) and gives their silhouettes the local labels 1..count.
+	 */
+	private class Stripe extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int fromY, toY;
+
+		private final UnionFind sets = new UnionFind(1024); // the equivalences of the provisional labels of the stripe
+
+		private int[] local = new int[1024]; // the local label of each root
+
+		private final Silhouettes silhouettes = new Silhouettes(); // the parts of the silhouettes in the stripe. The index of a part is its local label - 1
+
+		private int[] newLabels = new int[1]; // the new label of each local label
+
+		private boolean relabeling; // the task gives the cells the new labels
+
+		private boolean changed = true; // the cells of the stripe are changed since the previous scan, so the stripe must be labeled
+
+		private final IntUnaryOperator indexOf = label -> {
+			final int root = sets.find(label);
+
+			if (local[root] == 0) {
+				local[root] = silhouettes.add() + 1;
+			}
+
+			return local[root] - 1;
+		};
+		private final IntUnaryOperator labelOf = label -> newLabels[getLocal(label)];
+
+		private Stripe(int fromY, int toY) {
+			this.fromY = fromY;
+			this.toY = toY;
+		}
+
+		/**
+		 * @param label the provisional label of a cell of the stripe
+		 * @return the local label of the cell
+		 */
+		private int getLocal(int label) {
+			return local[sets.find(label)];
+		}
+
+		@Override
+		protected void compute() {
+			if (relabeling) {
+				ImageScannerUnionFind.relabel(map, fromY, toY, labels, labelOf);
+
+				return;
+			}
+
+			if (!changed) {
+				return; // the labels and the parts of the previous scan are kept
+			}
+
+			sets.clear();
+
+			ImageScannerUnionFind.label(map, fromY, toY, labels, sets);
+
+			if (local.length < sets.size()) {
+				local = new int[sets.size() * 2];
+			} else {
+				Arrays.fill(local, 0, sets.size(), 0);
+			}
+
+			silhouettes.clear();
+
+			ImageScannerUnionFind.collect(map, fromY, toY, labels, indexOf, silhouettes);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * Scan an image using the runs of the rows.
+ * <p>
+ * The map is run-length encoded (see {@link RunMap}), and the runs which overlap the runs of the previous row are merged using union-find.
+ * The cells are not visited one by one, so the time depends on the count of the runs, not on the image size.
+ * The silhouettes are added in the order of their first cells, so the result is the same as the result of the other scanners.
+ */
+public class ImageScannerRuns extends ImageScanner {
+	public ImageScannerRuns(BitMap map, int minSize) {
+		super(map, minSize);
+	}
+
+	public ImageScannerRuns(BitMap map, int minSize, ScanContext context) {
+		super(map, minSize, context);
+	}
+
+	/**
+	 * Scans the image for silhouettes.
+	 *
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result is changed by the next scan
+	 */
+	@Override
+	public Silhouettes scan() {
+		final RunMap runs = context.getRuns(map.width, map.height);
+
+		runs.addRows(map);
+
+		if (labeling) {
+			labels = context.getLabels(map.width * map.height);
+
+			Arrays.fill(labels, 0);
+		}
+
+		silhouettes = scan(runs, minSize, context, labeling ? labels : null);
+
+		return silhouettes;
+	}
+
+	/**
+	 * Scans an encoded map for silhouettes.
+	 *
+	 * @param runs    the map
+	 * @param minSize the min size of the silhouette
+	 * @param context the buffers of the scan
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result belongs to the context
+	 */
+	public static Silhouettes scan(RunMap runs, int minSize, ScanContext context) {
+		return scan(runs, minSize, context, null);
+	}
+
+	/**
+	 * Scans an encoded map for silhouettes. The label of a run is its index + 1.
+	 *
+	 * @param runs    the map
+	 * @param minSize the min size of the silhouette
+	 * @param context the buffers of the scan
+	 * @param labels  the cleared label image to write the labels of the silhouettes (the index + 1), null if it is not needed
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result belongs to the context
+	 */
+	static Silhouettes scan(RunMap runs, int minSize, ScanContext context, int[] labels) {
+		final int[] rows = runs.rows, starts = runs.starts, ends = runs.ends;
+
+		final UnionFind sets = context.sets;
+
+		sets.clear();
+
+		// the first pass: merge the runs which overlap the runs of the previous row
+		for (int y = 0; y < runs.height; ++y) {
+			for (int i = rows[y]; i < rows[y + 1]; ++i) {
+				sets.make(); // the label i + 1
+			}
+
+			if (y > 0) {
+				for (int i = rows[y], j = rows[y - 1]; i < rows[y + 1] && j < rows[y]; ) {
+					if (starts[i] < ends[j] && starts[j] < ends[i]) { // the runs overlap
+						sets.union(i + 1, j + 1);
+					}
+
+					if (ends[i] < ends[j]) { // the run which ends first cannot overlap the next runs of the other row
+						++i;
+					} else {
+						++j;
+					}
+				}
+			}
+		}
+
+		// the second pass: accumulate the statistics of each silhouette. The silhouettes are added in the order of their first cells
+		final Silhouettes silhouettes = context.silhouettes;
+
+		silhouettes.clear();
+
+		final int[] indices = context.getIndices(sets.size()); // the index of the silhouette of each root + 1. 0 if the root is not found yet
+
+		for (int y = 0; y < runs.height; ++y) {
+			for (int i = rows[y], j = y > 0 ? rows[y - 1] : 0; i < rows[y + 1]; ++i) {
+				final int root = sets.find(i + 1);
+
+				if (indices[root] == 0) {
+					indices[root] = silhouettes.add() + 1;
+				}
+
+				int edges = 2 * (ends[i] - starts[i]) + 2; // the upper, lower, left and right sides
+
+				if (y > 0) {
+					while (j < rows[y] && ends[j] <= starts[i]) { // skip the upper runs before the run
+						++j;
+					}
+
+					for (int k = j; k < rows[y] && starts[k] < ends[i]; ++k) { // each upper cell hides a side of both cells
+						edges -= 2 * (Math.min(ends[i], ends[k]) - Math.max(starts[i], starts[k]));
+					}
+				}
+
+				silhouettes.addRun(indices[root] - 1, starts[i], ends[i] - 1, y, edges);
+			}
+		}
+
+		final int[] newLabels = silhouettes.filter(minSize);
+
+		if (labels != null) { // give the cells the labels of their silhouettes
+			for (int y = 0; y < runs.height; ++y) {
+				for (int i = rows[y]; i < rows[y + 1]; ++i) {
+					final int label = newLabels[indices[sets.find(i + 1)] - 1];
+
+					if (label != 0) {
+						Arrays.fill(labels, y * runs.width + starts[i], y * runs.width + ends[i], label);
+					}
+				}
+			}
+		}
+
+		return silhouettes;
+	}
+}
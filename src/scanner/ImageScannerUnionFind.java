@@ -0,0 +1,192 @@
+package scanner;
+
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Scan an image using two raster passes and union-find over provisional labels.
+ * <p>
+ * Unlike DFS it needs no recursion, and unlike BFS it does not box the coordinates,
+ * so the used memory depends only on the image size.
+ */
+public class ImageScannerUnionFind extends ImageScanner {
+	private int[] indices; // the index of the silhouette of each root + 1. 0 if the root is not found yet
+	private int[] newLabels; // the label of each silhouette after the filter
+
+	// the functions of the passes. They are created once, so a scan does not allocate them
+	private final IntUnaryOperator indexOf = label -> {
+		final int root = context.sets.find(label);
+
+		if (indices[root] == 0) {
+			indices[root] = silhouettes.add() + 1;
+		}
+
+		return indices[root] - 1;
+	};
+	private final IntUnaryOperator labelOf = label -> newLabels[indices[context.sets.find(label)] - 1];
+
+	public ImageScannerUnionFind(BitMap map, int minSize) {
+		super(map, minSize);
+	}
+
+	public ImageScannerUnionFind(BitMap map, int minSize, ScanContext context) {
+		super(map, minSize, context);
+	}
+
+	/**
+	 * Scans the image for silhouettes.
+	 *
+	 * @return the silhouettes which are not smaller than min size and their statistics. The result is changed by the next scan
+	 */
+	@Override
+	public Silhouettes scan() {
+		final int height = map.height; // the height of the image
+
+		labels = context.getLabels(map.width * height); // the provisional label of each cell
+
+		final UnionFind sets = context.sets;
+
+		sets.clear();
+
+		// the first pass: give each cell the label of its left or upper neighbour or a new one
+		label(map, 0, height, labels, sets);
+
+		// the second pass: accumulate the statistics of each silhouette. The silhouettes are added in the order of their first cells
+		silhouettes = context.silhouettes;
+
+		silhouettes.clear();
+
+		indices = context.getIndices(sets.size());
+
+		collect(map, 0, height, labels, indexOf, silhouettes);
+
+		newLabels = silhouettes.filter(minSize);
+
+		if (labeling) { // the third pass: give the cells the labels of their silhouettes
+			relabel(map, 0, height, labels, labelOf);
+		}
+
+		return silhouettes;
+	}
+
+	/**
+	 * Adds the cells of the rows [fromY, toY) to the silhouettes of their labels.
+	 * The cells are added by runs (the cells of a run have the same label). The perimeter of a run is counted from
+	 * its left and upper neighbours: each pair of neighbour cells hides two sides. The cells of the row fromY - 1 are not used.
+	 *
+	 * @param map         the scanned map
+	 * @param fromY       the first row (inclusive)
+	 * @param toY         the last row (exclusive)
+	 * @param labels      the labels of the cells. The index of a cell is y * width + x
+	 * @param indices     gives the index of the silhouette of a label
+	 * @param silhouettes the silhouettes
+	 */
+	static void collect(BitMap map, int fromY, int toY, int[] labels, IntUnaryOperator indices, Silhouettes silhouettes) {
+		final int width = map.width, wordsPerRow = map.wordsPerRow;
+
+		for (int y = fromY; y < toY; ++y) {
+			final int rowStart = y * width;
+
+			for (int k = 0; k < wordsPerRow; ++k) {
+				long word = map.words[y * wordsPerRow + k];
+
+				final long upperWord = y > fromY ? map.words[(y - 1) * wordsPerRow + k] : 0;
+
+				while (word != 0) { // for each run of silhouette's cells of the word
+					final int start = Long.numberOfTrailingZeros(word);
+					final int length = Long.numberOfTrailingZeros(~(word >>> start)); // the count of the set bits from start
+
+					final long run = (length == 64 ? -1L : (1L << length) - 1) << start;
+
+					word &= ~run;
+
+					final int x = (k << 6) + start, i = rowStart + x;
+
+					int edges = 2 * length + 2 - 2 * Long.bitCount(run & upperWord); // the cells of the run hide 2 * (length - 1) sides
+
+					if (x > 0 && labels[i - 1] != 0) { // the run continues the run of the previous word
+						edges -= 2;
+					}
+
+					silhouettes.addRun(indices.applyAsInt(labels[i]), x, x + length - 1, y, edges);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Changes the labels of the cells of the rows [fromY, toY). The cells are changed by runs (the cells of a run have the same label).
+	 *
+	 * @param map       the scanned map
+	 * @param fromY     the first row (inclusive)
+	 * @param toY       the last row (exclusive)
+	 * @param labels    the labels of the cells. The index of a cell is y * width + x
+	 * @param newLabels gives the new label of a label
+	 */
+	static void relabel(BitMap map, int fromY, int toY, int[] labels, IntUnaryOperator newLabels) {
+		final int width = map.width, wordsPerRow = map.wordsPerRow;
+
+		for (int y = fromY; y < toY; ++y) {
+			for (int k = 0; k < wordsPerRow; ++k) {
+				long word = map.words[y * wordsPerRow + k];
+
+				while (word != 0) { // for each run of silhouette's cells of the word
+					final int start = Long.numberOfTrailingZeros(word);
+					final int length = Long.numberOfTrailingZeros(~(word >>> start)); // the count of the set bits from start
+
+					word &= ~((length == 64 ? -1L : (1L << length) - 1) << start);
+
+					final int i = y * width + (k << 6) + start;
+
+					Arrays.fill(labels, i, i + length, newLabels.applyAsInt(labels[i]));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives provisional labels to the cells of the rows [fromY, toY).
+	 * Each cell gets the label of its left or upper neighbour or a new one. The cells of the row fromY - 1 are not used.
+	 * The background words of the map are skipped 64 cells at a time.
+	 *
+	 * @param map    the map to scan
+	 * @param fromY  the first row (inclusive)
+	 * @param toY    the last row (exclusive)
+	 * @param labels the provisional labels of the cells. The index of a cell is y * width + x
+	 * @param sets   the equivalences of the provisional labels
+	 */
+	static void label(BitMap map, int fromY, int toY, int[] labels, UnionFind sets) {
+		final int width = map.width;
+
+		for (int y = fromY; y < toY; ++y) {
+			final int rowStart = y * width;
+
+			Arrays.fill(labels, rowStart, rowStart + width, 0); // the background cells
+
+			for (int k = 0; k < map.wordsPerRow; ++k) {
+				long word = map.words[y * map.wordsPerRow + k];
+
+				while (word != 0) { // for each silhouette's cell of the word
+					final int i = rowStart + (k << 6) + Long.numberOfTrailingZeros(word);
+
+					word &= word - 1; // clear the lowest set bit
+
+					final int left = i > rowStart ? labels[i - 1] : 0;
+					final int upper = y > fromY ? labels[i - width] : 0;
+
+					if (left == 0 && upper == 0) { // a new silhouette (or a new part of a silhouette)
+						labels[i] = sets.make();
+					} else if (left == 0) {
+						labels[i] = upper;
+					} else {
+						labels[i] = left;
+
+						if (upper != 0 && upper != left) { // the cell connects two parts of a silhouette
+							sets.union(left, upper);
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -2,9 +2,12 @@ package scanner;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Counts silhouettes on an image.
@@ -22,17 +25,112 @@ import java.io.IOException;
  * <p>
  * To scan merged silhouettes you should increase cropPower.
  * You can set it as the fourth argument.
+ * <p>
+ * To choose the scan algorithm you should change scanMode (DFS, BFS, UNION_FIND, PARALLEL or RUNS).
+ * If the size filter passes all silhouettes (minSizeFactor is not less than the pixels count), RUNS counts the silhouettes
+ * by the Euler number of the map without labeling when the map has no holes (see {@link #countSilhouettes(PixelReader, int[], int, RunMap)}).
+ * You can set it as the fifth argument.
+ * <p>
+ * To scan images which are too large to be decoded at once you should add the --stream option.
+ * <p>
+ * To print the silhouettes count of every min deviation you should add the --sweep option (the crop is not applied).
+ * <p>
+ * To scan many images you should add the --batch option and set a directory or a text file with a path per line as the first argument.
+ * A CSV line is printed per image (JSON line with the --json option), the throughput is printed to the error stream.
+ * <p>
+ * To scan images with uneven lighting you should add the --adaptive option: the deviation of a pixel is taken from the mean color
+ * of the window around it instead of the perimeter color (see {@link AdaptiveThreshold}).
+ * The window radius can be set as --adaptive=radius, the default is 1/8 of the bigger image side.
+ * The pixels whose windows have no background pixels are thresholded against the perimeter color,
+ * so a radius smaller than the half of the biggest silhouette can miss silhouettes.
+ * <p>
+ * To scan the images posted over HTTP you should add the --serve option (see {@link ScanServer}), the port can be set as --serve=port.
+ * The arguments are the default parameters of the requests, the image path is ignored.
+ * <p>
+ * To cache the results and the deviation maps of the posted images you should add the --cache option (see {@link ScanCache}).
+ * The deviation maps are also written to a directory if it is set as --cache=directory.
+ * <p>
+ * To set the count of the scan threads of the batch and the server you should add the --threads=count option,
+ * the default is the count of the processors.
+ * <p>
+ * To scan the frames of a video or a timelapse you should add the --sequence option and set a directory or a text file
+ * with a path per line as the first argument (see {@link SequenceScanner}). Only the changed parts of the frames are labeled again.
+ * <p>
+ * To print the latency histograms of the stages to the error stream you should add the --stats option (see {@link Metrics}).
  */
 public class Main {
 	private static final String DEFAULT_FILE_PATH = "assets/mtest5.jpg";
-
-	private static final boolean SCAN_MODE = false; // true - DFS, false - BFS
+	private static final int DEFAULT_PORT = 8080; // the port of the server
+	private static final long MAX_DISK_CACHE_SIZE = 4L << 30; // the max size of the disk tier of the cache in bytes
 
 	private static int minDeviation = 130; // the color sensitivity value (threshold).
 	private static int minSizeFactor = 140; // the setting of the size-filter. The bigger the value the smaller silhouettes will be passed though the filter
 	private static int cropPower = 0; // the crop power
+	private static ScanMode scanMode = ScanMode.UNION_FIND; // the scan algorithm
+	private static int adaptiveRadius = 0; // the radius of the local background window. 0 uses the global background, -1 the default radius
 
 	public static void main(String[] args) {
+		final List<String> arguments = new ArrayList<>(); // the arguments without the options
+
+		boolean stream = false; // read the image in bands
+		boolean sweep = false; // count silhouettes of every min deviation
+		boolean batch = false; // scan a directory or a list of images
+		boolean sequence = false; // scan the frames of a sequence
+		boolean json = false; // print the batch results as JSON lines
+		boolean stats = false; // print the latency histograms of the stages
+		int port = -1; // the port of the server, -1 if the server is not started
+		File cacheDirectory = null; // the directory of the disk tier of the cache
+		boolean cache = false; // cache the results of the server
+		int threads = Runtime.getRuntime().availableProcessors(); // the count of the scan threads of the batch and the server
+
+		for (String arg : args) {
+			if (arg.equals("--stream")) {
+				stream = true;
+			} else if (arg.equals("--sweep")) {
+				sweep = true;
+			} else if (arg.equals("--batch")) {
+				batch = true;
+			} else if (arg.equals("--sequence")) {
+				sequence = true;
+			} else if (arg.equals("--json")) {
+				json = true;
+			} else if (arg.equals("--stats")) {
+				stats = true;
+			} else if (arg.equals("--serve")) {
+				port = DEFAULT_PORT;
+			} else if (arg.startsWith("--serve=")) {
+				try {
+					port = Integer.parseInt(arg.substring("--serve=".length()));
+				} catch (NumberFormatException e) {
+					System.out.println("The port must be an integer");
+					port = DEFAULT_PORT;
+				}
+			} else if (arg.equals("--cache")) {
+				cache = true;
+			} else if (arg.startsWith("--cache=")) {
+				cache = true;
+				cacheDirectory = new File(arg.substring("--cache=".length()));
+			} else if (arg.startsWith("--threads=")) {
+				try {
+					threads = Math.max(Integer.parseInt(arg.substring("--threads=".length())), 1);
+				} catch (NumberFormatException e) {
+					System.out.println("The threads count must be an integer");
+				}
+			} else if (arg.equals("--adaptive")) {
+				adaptiveRadius = -1;
+			} else if (arg.startsWith("--adaptive=")) {
+				try {
+					adaptiveRadius = Math.max(Integer.parseInt(arg.substring("--adaptive=".length())), 1);
+				} catch (NumberFormatException e) {
+					System.out.println("The window radius must be an integer");
+				}
+			} else {
+				arguments.add(arg);
+			}
+		}
+
+		args = arguments.toArray(new String[0]);
+
 		final String filePath;
 
 		if (args.length > 0) {
@@ -59,19 +157,116 @@ public class Main {
 					System.out.println("The fourth argument must be an integer");
 				}
 			}
+			if (args.length > 4) {
+				try {
+					scanMode = ScanMode.valueOf(args[4].toUpperCase());
+				} catch (IllegalArgumentException e) {
+					System.out.println("The fifth argument must be DFS, BFS, UNION_FIND, PARALLEL or RUNS");
+				}
+			}
 		} else {
 			filePath = DEFAULT_FILE_PATH;
 		}
 
+		Metrics.setEnabled(stats);
+
 		try {
-			System.out.println("Silhouettes: " + findSilhouettes(ImageIO.read(new File(filePath))));
+			if (port >= 0) {
+				final ScanServer server = new ScanServer(minDeviation, minSizeFactor, cropPower, scanMode, threads, 4 * threads);
+
+				if (cache) {
+					server.setCache(new ScanCache(Runtime.getRuntime().maxMemory() / 4, cacheDirectory, MAX_DISK_CACHE_SIZE));
+				}
+
+				System.err.println("Listening on port " + server.start(port));
+
+				Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+				return; // the server threads keep the JVM running
+			} else if (sequence) {
+				final List<File> files = BatchScanner.listFiles(new File(filePath));
+
+				if (new File(filePath).isDirectory()) {
+					files.sort(SequenceScanner.FRAME_ORDER);
+				}
+
+				final long start = System.nanoTime();
+
+				final long[] stripes = new SequenceScanner(minDeviation, minSizeFactor, cropPower, ForkJoinPool.commonPool()).run(files, System.out);
+
+				final long time = System.nanoTime() - start;
+
+				System.err.printf("Frames: %d, seconds: %.3f, frames/sec: %.2f, labeled stripes: %.1f%%%n", files.size(), time / 1e9, files.size() / (time / 1e9),
+						100.0 * stripes[0] / Math.max(stripes[1], 1));
+			} else if (batch) {
+				final List<File> files = BatchScanner.listFiles(new File(filePath));
+
+				final long time = new BatchScanner(minDeviation, minSizeFactor, cropPower, scanMode, threads)
+						.run(files, System.out, json);
+
+				System.err.printf("Images: %d, seconds: %.3f, images/sec: %.2f%n", files.size(), time / 1e9, files.size() / (time / 1e9));
+			} else if (sweep) {
+				printSweep(readImage(new File(filePath)));
+			} else if (stream) {
+				System.out.println("Silhouettes: " + new StreamingScanner(minDeviation, minSizeFactor, cropPower).findSilhouettes(new File(filePath)));
+			} else {
+				System.out.println("Silhouettes: " + findSilhouettes(readImage(new File(filePath))));
+			}
 		} catch (IOException e) {
 			System.out.println("Cannot read file \"" + filePath + "\"");
 		} catch (ArrayIndexOutOfBoundsException e) {
 			System.out.println("Wrong image size");
 		} catch (StackOverflowError e) {
 			System.out.println("Stack overflow. You should increase the stack size");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (stats) {
+			System.err.print(Metrics.report());
+		}
+	}
+
+	/**
+	 * Decodes an image.
+	 *
+	 * @param file the image file
+	 * @return the image
+	 * @throws IOException if the file cannot be read or its format is not supported
+	 */
+	static BufferedImage readImage(File file) throws IOException {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.DECODE);
+
+		final BufferedImage image = ImageIO.read(file);
+
+		if (image == null) {
+			throw new IOException("Unsupported image format");
+		}
+
+		probe.stop(image.getWidth(), image.getHeight(), 0);
+
+		return image;
+	}
+
+	/**
+	 * Decodes an image.
+	 *
+	 * @param input the encoded image
+	 * @return the image
+	 * @throws IOException if the stream cannot be read or its format is not supported
+	 */
+	static BufferedImage readImage(InputStream input) throws IOException {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.DECODE);
+
+		final BufferedImage image = ImageIO.read(input);
+
+		if (image == null) {
+			throw new IOException("Unsupported image format");
 		}
+
+		probe.stop(image.getWidth(), image.getHeight(), 0);
+
+		return image;
 	}
 
 	/**
@@ -81,109 +276,140 @@ public class Main {
 	 * @return the silhouettes count
 	 */
 	public static int findSilhouettes(BufferedImage image) {
-		int[][][] pixels = getPixels(image);
+		final PixelReader pixels = PixelReader.of(image); // reads the raster without copying it
+
+		if (scanMode == ScanMode.RUNS && cropPower == 0 && adaptiveRadius == 0 && pixels.width * pixels.height / minSizeFactor <= 1) { // only the count is needed and the size filter passes all silhouettes
+			final RunMap runs = new RunMap(pixels.width, pixels.height);
+
+			final int count = countSilhouettes(pixels, getBackground(pixels), minDeviation, runs);
+
+			if (count >= 0) {
+				return count;
+			}
+
+			final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN); // the map may have holes, so the runs are labeled
 
-		boolean[][] map = getSilhouettesMap(pixels, getBackground(pixels), minDeviation); // it is easier to read the code with this variable
+			final int size = ImageScannerRuns.scan(runs, 1, new ScanContext()).size();
 
-		for (int i = 0; i < cropPower; ++i) {
-			map = cropMap(map);
+			probe.stop(runs.width, runs.height, size);
+
+			return size;
 		}
 
-		final int minSize = image.getWidth() * image.getHeight() / minSizeFactor; // it is easier to read the code with this variable
+		return findSilhouettes(pixels, minDeviation, minSizeFactor, cropPower, adaptiveRadius, scanMode, new ScanContext()).size();
+	}
+
+	/**
+	 * Finds silhouettes on an image.
+	 *
+	 * @param pixels         the image reader
+	 * @param minDeviation   the min deviation value
+	 * @param minSizeFactor  the setting of the size-filter
+	 * @param cropPower      the crop power
+	 * @param adaptiveRadius the radius of the local background window. 0 uses the global background, -1 the default radius
+	 * @param scanMode       the scan algorithm
+	 * @param context        the buffers of the scanner. The result belongs to the context
+	 * @return the silhouettes
+	 */
+	static Silhouettes findSilhouettes(PixelReader pixels, int minDeviation, int minSizeFactor, int cropPower, int adaptiveRadius,
+									   ScanMode scanMode, ScanContext context) {
+		if (scanMode == ScanMode.RUNS && cropPower == 0 && adaptiveRadius == 0) { // the map is encoded while it is thresholded, so the bit map is not needed
+			final RunMap runs = getSilhouettesRuns(pixels, getBackground(pixels), minDeviation);
+
+			final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
 
-		final ImageScanner imageScanner; // it is easier to read the code with this variable
+			final Silhouettes silhouettes = ImageScannerRuns.scan(runs, pixels.width * pixels.height / minSizeFactor, context);
 
-		if (SCAN_MODE) {
-			imageScanner = new ImageScannerDFS(map, minSize);
+			probe.stop(runs.width, runs.height, silhouettes.size());
+
+			return silhouettes;
+		}
+
+		BitMap map; // it is easier to read the code with this variable
+
+		if (adaptiveRadius != 0) {
+			final int radius = adaptiveRadius > 0 ? adaptiveRadius : Math.max(Math.max(pixels.width, pixels.height) / 8, 1);
+
+			map = getAdaptiveSilhouettesMap(pixels, getBackground(pixels), radius, minDeviation);
 		} else {
-			imageScanner = new ImageScannerBFS(map, minSize);
+			map = getSilhouettesMap(pixels, getBackground(pixels), minDeviation);
 		}
 
-		return imageScanner.scan().size();
+		if (cropPower > 0) {
+			final Metrics.Probe probe = Metrics.start(Metrics.Stage.CROP);
+
+			map = new DistanceMap(map).crop(cropPower); // the same as cropPower calls of cropMap
+
+			probe.stop(map.width, map.height, 0);
+		}
+
+		final int minSize = pixels.width * pixels.height / minSizeFactor; // it is easier to read the code with this variable
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
+
+		final Silhouettes silhouettes = scanMode.createScanner(map, minSize, context).scan();
+
+		probe.stop(map.width, map.height, silhouettes.size());
+
+		return silhouettes;
 	}
 
 	/**
-	 * Gets all pixels of an image as an array[x][y][channel].
-	 * Channel 0 is red. Channel 1 is green. Channel 2 is blue. Channel 3 is alpha.
-	 * It is more optimized than using BufferedImage.getRGB(int, int) method.
+	 * Prints the silhouettes count of every min deviation as "minDeviation,count" lines.
 	 *
 	 * @param image the image
-	 * @return the array of pixels with size [width][height][4]
 	 */
-	public static int[][][] getPixels(BufferedImage image) {
-		final int width = image.getWidth(), height = image.getHeight();
-		final byte[] pixelsArray = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
-
-		final int[][][] pixelsMap = new int[width][height][4]; // 4 is count of channels (red, green, blue, alpha)
-
-		int i = 0, x = 0, y = 0;
+	private static void printSweep(BufferedImage image) {
+		final PixelReader pixels = PixelReader.of(image);
 
-		if (image.getAlphaRaster() == null) { // if the image do not contain the alpha channel
-			if (pixelsArray.length == width * height) { // if all channels stored as one integer
-				while (i < pixelsArray.length) {
-					pixelsMap[x][y][3] = 255; // alpha
-					pixelsMap[x][y][2] = (pixelsArray[i] >> 16) & 0xff; // blue
-					pixelsMap[x][y][1] = (pixelsArray[i] >> 8) & 0xff; // green
-					pixelsMap[x][y][0] = pixelsArray[i++] & 0xff; // red
+		final int minSize = image.getWidth() * image.getHeight() / minSizeFactor; // it is easier to read the code with this variable
 
-					++x;
+		final int[] counts = ThresholdSweep.countSilhouettes(new DeviationMap(pixels, getBackground(pixels)), minSize);
 
-					if (x == width) {
-						++y;
+		final StringBuilder builder = new StringBuilder("minDeviation,silhouettes\n");
 
-						x = 0;
-					}
-				}
-			} else { // if each channel stored in separated integers
-				while (i < pixelsArray.length) {
-					pixelsMap[x][y][3] = 255; // alpha
-					pixelsMap[x][y][2] = pixelsArray[i++] & 0xff; // blue
-					pixelsMap[x][y][1] = pixelsArray[i++] & 0xff; // green
-					pixelsMap[x][y][0] = pixelsArray[i++] & 0xff; // red
+		for (int deviation = 1; deviation <= DeviationMap.MAX_DEVIATION; ++deviation) {
+			builder.append(deviation).append(',').append(counts[deviation]).append('\n');
+		}
 
-					++x;
+		System.out.print(builder);
+	}
 
-					if (x == width) {
-						++y;
+	/**
+	 * Gets all pixels of an image as an array[x][y][channel].
+	 * Channel 0 is red. Channel 1 is green. Channel 2 is blue. Channel 3 is alpha.
+	 * It is more optimized than using BufferedImage.getRGB(int, int) method.
+	 * Supports all image types (see {@link PixelReader}).
+	 *
+	 * @param image the image
+	 * @return the array of pixels with size [width][height][4]
+	 */
+	public static int[][][] getPixels(BufferedImage image) {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.PIXELS);
 
-						x = 0;
-					}
-				}
-			}
-		} else { // if the image do contain the alpha channel
-			if (pixelsArray.length == width * height) { // if all channels stored as one integer (maybe some images are stored like that)
-				while (i < pixelsArray.length) {
-					pixelsMap[x][y][3] = (pixelsArray[i] >> 24) & 0xff; // alpha
-					pixelsMap[x][y][2] = (pixelsArray[i] >> 16) & 0xff; // blue
-					pixelsMap[x][y][1] = (pixelsArray[i] >> 8) & 0xff; // green
-					pixelsMap[x][y][0] = pixelsArray[i++] & 0xff; // red
+		final PixelReader reader = PixelReader.of(image);
 
-					++x;
+		final int width = reader.width, height = reader.height;
 
-					if (x == width) {
-						++y;
+		final int[][][] pixelsMap = new int[width][height][4]; // 4 is count of channels (red, green, blue, alpha)
 
-						x = 0;
-					}
-				}
-			} else { // if each channel stored in separated integers
-				while (i < pixelsArray.length) {
-					pixelsMap[x][y][3] = pixelsArray[i++] & 0xff; // alpha
-					pixelsMap[x][y][2] = pixelsArray[i++] & 0xff; // blue
-					pixelsMap[x][y][1] = pixelsArray[i++] & 0xff; // green
-					pixelsMap[x][y][0] = pixelsArray[i++] & 0xff; // red
+		final int[] row = new int[width];
 
-					++x;
+		for (int y = 0; y < height; ++y) {
+			reader.readRow(y, row);
 
-					if (x == width) {
-						++y;
+			for (int x = 0; x < width; ++x) {
+				final int pixel = row[x];
 
-						x = 0;
-					}
-				}
+				pixelsMap[x][y][3] = pixel >>> 24; // alpha
+				pixelsMap[x][y][2] = pixel & 0xff; // blue
+				pixelsMap[x][y][1] = (pixel >> 8) & 0xff; // green
+				pixelsMap[x][y][0] = (pixel >> 16) & 0xff; // red
 			}
 		}
 
+		probe.stop(width, height, 0);
+
 		return pixelsMap;
 	}
 
@@ -196,6 +422,8 @@ public class Main {
 	 * @throws ArrayIndexOutOfBoundsException if image size is 0
 	 */
 	public static int[] getBackground(int[][][] pixels) throws ArrayIndexOutOfBoundsException {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.BACKGROUND);
+
 		final int width = pixels.length, height = pixels[0].length;
 
 		long red = 0, grn = 0, blu = 0, alp = 0;
@@ -237,11 +465,191 @@ public class Main {
 		blu /= count;
 		alp /= count;
 
+		probe.stop(width, height, 0);
+
 		return new int[]{(int) red, (int) grn, (int) blu, (int) alp};
 	}
 
 	/**
-	 * Generates boolean map[x][y].
+	 * Defines the background color of an image.
+	 * The background color is arithmetic mean of the perimeter pixels of an image.
+	 * Reads only the perimeter pixels.
+	 *
+	 * @param pixels the image reader
+	 * @return the background color as array[4] (red, green, blue, alpha)
+	 */
+	public static int[] getBackground(PixelReader pixels) {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.BACKGROUND);
+
+		final int width = pixels.width, height = pixels.height;
+
+		final int[] row = new int[width];
+
+		long red = 0, grn = 0, blu = 0, alp = 0;
+
+		// scan horizontal perimeter lines
+		for (int y : new int[]{0, height - 1}) {
+			pixels.readRow(y, row);
+
+			for (int pixel : row) {
+				red += (pixel >> 16) & 0xff;
+				grn += (pixel >> 8) & 0xff;
+				blu += pixel & 0xff;
+				alp += pixel >>> 24;
+			}
+		}
+
+		// scan vertical perimeter lines
+		for (int y = 1; y < height - 1; ++y) {
+			int pixel = pixels.getPixel(0, y);
+
+			red += (pixel >> 16) & 0xff;
+			grn += (pixel >> 8) & 0xff;
+			blu += pixel & 0xff;
+			alp += pixel >>> 24;
+
+			pixel = pixels.getPixel(width - 1, y);
+
+			red += (pixel >> 16) & 0xff;
+			grn += (pixel >> 8) & 0xff;
+			blu += pixel & 0xff;
+			alp += pixel >>> 24;
+		}
+
+		int count = 2 * (width + height) - 4; // perimeter pixels count (4 is corner pixels)
+
+		red /= count;
+		grn /= count;
+		blu /= count;
+		alp /= count;
+
+		probe.stop(width, height, 0);
+
+		return new int[]{(int) red, (int) grn, (int) blu, (int) alp};
+	}
+
+	/**
+	 * Generates the run-length encoded map of an image.
+	 * Map value is true if the pixel's deviation is bigger or equal to min deviation.
+	 * Each row is thresholded into a single packed row and encoded, so the memory depends on the count of the runs.
+	 *
+	 * @param pixels       the image reader
+	 * @param background   the background color as array[4] (red, green, blue, alpha)
+	 * @param minDeviation the min deviation value
+	 * @return the map
+	 */
+	public static RunMap getSilhouettesRuns(PixelReader pixels, int[] background, int minDeviation) {
+		final int width = pixels.width, height = pixels.height;
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.THRESHOLD);
+
+		final RunMap runs = new RunMap(width, height);
+
+		final int[] row = new int[width], deviations = new int[width];
+		final long[] words = new long[(width + 63) >>> 6];
+
+		for (int y = 0; y < height; ++y) {
+			pixels.readRow(y, row);
+
+			Deviations.thresholdRow(row, width, background, minDeviation, deviations, words, 0);
+
+			runs.addRow(words, 0);
+		}
+
+		probe.stop(width, height, 0);
+
+		return runs;
+	}
+
+	/**
+	 * Counts silhouettes on an image by the Euler number of its map without labeling (see {@link EulerCounter}).
+	 * Each row is thresholded into a single packed row and counted, so the memory depends only on the width of the image.
+	 * The rows can also be encoded in the same pass, so the map can be labeled without thresholding it again if the count is not exact.
+	 * The size filter is not applied.
+	 *
+	 * @param pixels       the image reader
+	 * @param background   the background color as array[4] (red, green, blue, alpha)
+	 * @param minDeviation the min deviation value
+	 * @param runs         the empty map of the same size to encode the rows, null if it is not needed
+	 * @return the silhouettes count, -1 if the map may have holes, so it has to be labeled
+	 */
+	public static int countSilhouettes(PixelReader pixels, int[] background, int minDeviation, RunMap runs) {
+		final int width = pixels.width, height = pixels.height;
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
+
+		final EulerCounter counter = new EulerCounter(width);
+
+		final int[] row = new int[width], deviations = new int[width];
+		final long[] words = new long[(width + 63) >>> 6];
+
+		for (int y = 0; y < height; ++y) {
+			pixels.readRow(y, row);
+
+			Deviations.thresholdRow(row, width, background, minDeviation, deviations, words, 0);
+
+			counter.addRow(words, 0);
+
+			if (runs != null) {
+				runs.addRow(words, 0);
+			}
+		}
+
+		counter.finish();
+
+		final int count = counter.count();
+
+		probe.stop(width, height, Math.max(count, 0));
+
+		return count;
+	}
+
+	/**
+	 * Generates the bit map of an image with uneven background.
+	 * Map value is true if the pixel's deviation from the mean color of its window is bigger or equal to min deviation.
+	 *
+	 * @param pixels       the image reader
+	 * @param background   the global background color as array[4] (red, green, blue, alpha)
+	 * @param radius       the radius of the window (see {@link AdaptiveThreshold#threshold(int)})
+	 * @param minDeviation the min deviation value
+	 * @return the map
+	 */
+	public static BitMap getAdaptiveSilhouettesMap(PixelReader pixels, int[] background, int radius, int minDeviation) {
+		return new AdaptiveThreshold(pixels, background, minDeviation).threshold(radius);
+	}
+
+	/**
+	 * Generates the bit map of an image.
+	 * Map value is true if the pixel's deviation is bigger or equal to min deviation.
+	 * Reads the image row by row, so no copy of the image is created.
+	 *
+	 * @param pixels       the image reader
+	 * @param background   the background color as array[4] (red, green, blue, alpha)
+	 * @param minDeviation the min deviation value
+	 * @return the map
+	 */
+	public static BitMap getSilhouettesMap(PixelReader pixels, int[] background, int minDeviation) {
+		final int width = pixels.width, height = pixels.height;
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.THRESHOLD);
+
+		final BitMap map = new BitMap(width, height);
+
+		final int[] row = new int[width], deviations = new int[width];
+
+		for (int y = 0; y < height; ++y) {
+			pixels.readRow(y, row);
+
+			Deviations.thresholdRow(row, width, background, minDeviation, deviations, map.words, y * map.wordsPerRow);
+		}
+
+		probe.stop(width, height, 0);
+
+		return map;
+	}
+
+	/**
+	 * Generates the bit map of an image.
 	 * Map value is true if the pixel's deviation is bigger or equal to min deviation.
 	 *
 	 * @param pixels       the image as pixels array[x][y][channel]
@@ -250,10 +658,12 @@ public class Main {
 	 * @return the map
 	 * @throws ArrayIndexOutOfBoundsException if image size is 0
 	 */
-	public static boolean[][] getSilhouettesMap(int[][][] pixels, int[] background, int minDeviation) throws ArrayIndexOutOfBoundsException {
+	public static BitMap getSilhouettesMap(int[][][] pixels, int[] background, int minDeviation) throws ArrayIndexOutOfBoundsException {
 		final int width = pixels.length, height = pixels[0].length;
 
-		boolean[][] map = new boolean[width][height];
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.THRESHOLD);
+
+		final BitMap map = new BitMap(width, height);
 
 		for (int x = 0; x < width; ++x) {
 			for (int y = 0; y < height; ++y) {
@@ -264,10 +674,14 @@ public class Main {
 					deviation += Math.abs(pixels[x][y][i] - background[i]);
 				}
 
-				map[x][y] = deviation >= minDeviation;
+				if (deviation >= minDeviation) {
+					map.set(x, y);
+				}
 			}
 		}
 
+		probe.stop(width, height, 0);
+
 		return map;
 	}
 
@@ -348,4 +762,44 @@ public class Main {
 
 		return result;
 	}
+
+	/**
+	 * Deletes the edge pixels of a silhouette, so if several silhouettes are slightly merged, it can split them into separate ones.
+	 * In some cases needs to de applied several times to split silhouettes.
+	 * <p>
+	 * Gives the same result as {@link #cropMap(boolean[][])}: a pixel is kept only if all 8 pixels around it are silhouette's pixels
+	 * (pixels outside the image are background). Processes 64 pixels at a time.
+	 *
+	 * @param silhouettesMap the silhouette to crop
+	 * @return the cropped silhouette
+	 */
+	public static BitMap cropMap(BitMap silhouettesMap) {
+		final int height = silhouettesMap.height, wordsPerRow = silhouettesMap.wordsPerRow;
+		final long[] words = silhouettesMap.words;
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.CROP);
+
+		final BitMap result = new BitMap(silhouettesMap.width, height);
+
+		final long[] column = new long[wordsPerRow]; // the pixels which have silhouette's pixels above and below
+
+		for (int y = 1; y < height - 1; ++y) { // the first and the last rows are always cropped
+			final int row = y * wordsPerRow;
+
+			for (int k = 0; k < wordsPerRow; ++k) { // crop upper and lower pixels
+				column[k] = words[row - wordsPerRow + k] & words[row + k] & words[row + wordsPerRow + k];
+			}
+
+			for (int k = 0; k < wordsPerRow; ++k) { // crop left and right pixels
+				final long left = column[k] << 1 | (k > 0 ? column[k - 1] >>> 63 : 0); // the left neighbours
+				final long right = column[k] >>> 1 | (k < wordsPerRow - 1 ? column[k + 1] << 63 : 0); // the right neighbours
+
+				result.words[row + k] = column[k] & left & right;
+			}
+		}
+
+		probe.stop(silhouettesMap.width, height, 0);
+
+		return result;
+	}
 }
@@ -0,0 +1,236 @@
+package scanner;
+
+import jdk.jfr.EventType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the stages of the silhouettes search.
+ * <p>
+ * Each stage is reported as a Flight Recorder event ({@link StageEvent}) and, if the metrics are enabled,
+ * its latency is added to the histogram of the stage. If neither is enabled, a stage costs two flag checks and allocates nothing.
+ * <p>
+ * Usage:
+ * <pre>
+ * final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
+ * ...
+ * probe.stop(width, height, count);
+ * </pre>
+ */
+public final class Metrics {
+	/**
+	 * The measured stages.
+	 */
+	public enum Stage {
+		DECODE, PIXELS, BACKGROUND, THRESHOLD, CROP, SCAN
+	}
+
+	private static final int SUB_BUCKETS = 8; // the count of buckets per power of two (the error of a percentile is 1 / 8)
+
+	private static final Histogram[] histograms = new Histogram[Stage.values().length];
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private static final EventType EVENT_TYPE = EventType.getEventType(StageEvent.class);
+
+	private static final Probe DISABLED = new Probe(null, null);
+
+	private static volatile boolean enabled; // collect the histograms
+
+	static {
+		for (int i = 0; i < histograms.length; ++i) {
+			histograms[i] = new Histogram();
+		}
+	}
+
+	private Metrics() {
+	}
+
+	public static void setEnabled(boolean enabled) {
+		Metrics.enabled = enabled;
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts to measure a stage.
+	 *
+	 * @param stage the stage
+	 * @return the probe to stop the measurement
+	 */
+	public static Probe start(Stage stage) {
+		if (!enabled && !EVENT_TYPE.isEnabled()) {
+			return DISABLED;
+		}
+
+		final StageEvent event = new StageEvent();
+
+		event.begin();
+
+		return new Probe(stage, event);
+	}
+
+	/**
+	 * Clears all histograms.
+	 */
+	public static void reset() {
+		for (Histogram histogram : histograms) {
+			histogram.clear();
+		}
+	}
+
+	/**
+	 * Creates the report of all stages which were measured.
+	 *
+	 * @return the table with the count, mean, percentiles and max latency of each stage in milliseconds
+	 */
+	public static String report() {
+		final StringBuilder builder = new StringBuilder(String.format(Locale.ROOT, "%-10s %8s %10s %10s %10s %10s %10s %10s%n",
+				"stage", "count", "total ms", "mean ms", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+
+		for (Stage stage : Stage.values()) {
+			final Histogram histogram = histograms[stage.ordinal()];
+
+			final long count = histogram.totals.get(0);
+
+			if (count == 0) {
+				continue;
+			}
+
+			builder.append(String.format(Locale.ROOT, "%-10s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n", stage.name().toLowerCase(Locale.ROOT), count,
+					histogram.totals.get(1) / 1e6, histogram.totals.get(1) / 1e6 / count,
+					histogram.getPercentile(0.5) / 1e6, histogram.getPercentile(0.9) / 1e6, histogram.getPercentile(0.99) / 1e6,
+					histogram.totals.get(2) / 1e6));
+		}
+
+		return builder.toString();
+	}
+
+	private static long getAllocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+
+		return 0; // the allocations are unknown
+	}
+
+	/**
+	 * The measurement of a stage.
+	 */
+	public static final class Probe {
+		private final Stage stage;
+		private final StageEvent event;
+
+		private final long start, allocated; // the start time and allocated bytes of the thread at the start
+
+		private Probe(Stage stage, StageEvent event) {
+			this.stage = stage;
+			this.event = event;
+
+			start = stage == null ? 0 : System.nanoTime();
+			allocated = stage == null ? 0 : getAllocatedBytes();
+		}
+
+		/**
+		 * Stops the measurement.
+		 *
+		 * @param width      the width of the image
+		 * @param height     the height of the image
+		 * @param components the count of the found silhouettes, 0 if it is unknown
+		 */
+		public void stop(int width, int height, int components) {
+			if (stage == null) { // the metrics are disabled
+				return;
+			}
+
+			final long time = System.nanoTime() - start;
+
+			if (enabled) {
+				histograms[stage.ordinal()].add(time);
+			}
+
+			event.end();
+
+			if (event.shouldCommit()) {
+				event.stage = stage.name().toLowerCase(Locale.ROOT);
+				event.width = width;
+				event.height = height;
+				event.pixels = (long) width * height;
+				event.components = components;
+				event.allocated = getAllocatedBytes() - allocated;
+
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * The latency histogram of a stage. The buckets are log-linear: SUB_BUCKETS buckets per power of two nanoseconds.
+	 */
+	private static class Histogram {
+		private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+		private final AtomicLongArray totals = new AtomicLongArray(3); // the count, the sum and the max of the values
+
+		private void add(long nanos) {
+			buckets.incrementAndGet(getBucket(nanos));
+
+			totals.incrementAndGet(0);
+			totals.addAndGet(1, nanos);
+			totals.accumulateAndGet(2, nanos, Math::max);
+		}
+
+		private void clear() {
+			for (int i = 0; i < buckets.length(); ++i) {
+				buckets.set(i, 0);
+			}
+			for (int i = 0; i < totals.length(); ++i) {
+				totals.set(i, 0);
+			}
+		}
+
+		/**
+		 * @param percentile the percentile (0..1)
+		 * @return the upper bound of the bucket of the percentile in nanoseconds
+		 */
+		private long getPercentile(double percentile) {
+			final long rank = (long) Math.ceil(percentile * totals.get(0));
+
+			long seen = 0;
+
+			for (int i = 0; i < buckets.length(); ++i) {
+				seen += buckets.get(i);
+
+				if (seen >= rank && seen > 0) {
+					return Math.min(getUpperBound(i), totals.get(2));
+				}
+			}
+
+			return totals.get(2);
+		}
+
+		private static int getBucket(long nanos) {
+			if (nanos < SUB_BUCKETS) {
+				return (int) Math.max(nanos, 0);
+			}
+
+			final int exponent = 63 - Long.numberOfLeadingZeros(nanos); // the power of two (at least 3)
+
+			return (exponent - 2) * SUB_BUCKETS + (int) (nanos >>> (exponent - 3)) - SUB_BUCKETS; // the highest 4 bits select the sub-bucket
+		}
+
+		private static long getUpperBound(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+
+			final int exponent = bucket / SUB_BUCKETS + 2;
+
+			return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << (exponent - 3)) - 1;
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package scanner;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads the pixels of an image directly from its raster, without copying the whole image.
+ * <p>
+ * A pixel is returned as one integer: alpha is bits 24-31, red is bits 16-23, green is bits 8-15 and blue is bits 0-7.
+ * Gray pixels have equal red, green and blue. 16-bit samples are reduced to their high 8 bits.
+ * <p>
+ * The readers use the strides of the sample model, so sub-images are read correctly too.
+ */
+public abstract class PixelReader {
+	public final int width, height; // the dimensions of the image
+
+	protected PixelReader(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Creates the fastest reader for an image.
+	 * The images which are not supported by the specialized readers are read using BufferedImage.getRGB.
+	 *
+	 * @param image the image
+	 * @return the reader
+	 */
+	public static PixelReader of(BufferedImage image) {
+		final Raster raster = image.getRaster();
+		final SampleModel sampleModel = raster.getSampleModel();
+		final ColorModel colorModel = image.getColorModel();
+		final DataBuffer buffer = raster.getDataBuffer();
+
+		if (colorModel instanceof IndexColorModel) {
+			if (buffer instanceof DataBufferByte && (sampleModel instanceof MultiPixelPackedSampleModel
+					|| sampleModel instanceof ComponentSampleModel && sampleModel.getNumBands() == 1)) {
+				return new ByteIndexed(image);
+			}
+		} else if (colorModel instanceof ComponentColorModel && !colorModel.isAlphaPremultiplied()
+				&& sampleModel instanceof ComponentSampleModel && isSupported(colorModel.getColorSpace())) {
+			if (buffer instanceof DataBufferByte && hasComponentSize(colorModel, 8)) {
+				return new ByteComponent(image);
+			}
+			if (buffer instanceof DataBufferUShort && hasComponentSize(colorModel, 16)) {
+				return new UShortComponent(image);
+			}
+		} else if (colorModel instanceof DirectColorModel && !colorModel.isAlphaPremultiplied()
+				&& sampleModel instanceof SinglePixelPackedSampleModel && buffer instanceof DataBufferInt
+				&& hasComponentSize(colorModel, 8)) {
+			return new IntPacked(image);
+		}
+
+		return new Generic(image);
+	}
+
+	/**
+	 * Gets a pixel of the image.
+	 *
+	 * @param x the x-coordinate
+	 * @param y the y-coordinate
+	 * @return the pixel as ARGB integer
+	 */
+	public abstract int getPixel(int x, int y);
+
+	/**
+	 * Reads a row of the image.
+	 *
+	 * @param y   the row
+	 * @param row the array to write the pixels as ARGB integers. Its length is at least the width of the image
+	 */
+	public void readRow(int y, int[] row) {
+		for (int x = 0; x < width; ++x) {
+			row[x] = getPixel(x, y);
+		}
+	}
+
+	private static boolean isSupported(ColorSpace colorSpace) {
+		return colorSpace.isCS_sRGB() || colorSpace.getType() == ColorSpace.TYPE_GRAY;
+	}
+
+	private static boolean hasComponentSize(ColorModel colorModel, int size) {
+		for (int componentSize : colorModel.getComponentSize()) {
+			if (componentSize != size) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Contains the similarities of the readers of ComponentSampleModel rasters (gray, gray-alpha, RGB, RGBA).
+	 * Each band may be stored in its own bank.
+	 */
+	private abstract static class Component extends PixelReader {
+		protected final int red, green, blue, alpha; // the index of the band of each channel. Alpha is -1 if there is no alpha
+
+		protected final int[] offsets; // the offset of each band in its bank
+		protected final int pixelStride, scanlineStride;
+
+		private Component(BufferedImage image) {
+			super(image.getWidth(), image.getHeight());
+
+			final Raster raster = image.getRaster();
+			final ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+
+			final int bands = sampleModel.getNumBands();
+
+			if (bands < 3) { // gray or gray-alpha
+				red = green = blue = 0;
+			} else {
+				red = 0;
+				green = 1;
+				blue = 2;
+			}
+
+			alpha = image.getColorModel().hasAlpha() ? bands - 1 : -1;
+
+			pixelStride = sampleModel.getPixelStride();
+			scanlineStride = sampleModel.getScanlineStride();
+
+			offsets = new int[bands];
+
+			final int[] bankOffsets = raster.getDataBuffer().getOffsets();
+			final int[] bankIndices = sampleModel.getBankIndices();
+			final int[] bandOffsets = sampleModel.getBandOffsets();
+
+			final int translation = -raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX() * pixelStride; // the position of the raster in the sample model
+
+			for (int b = 0; b < bands; ++b) {
+				offsets[b] = bankOffsets[bankIndices[b]] + bandOffsets[b] + translation;
+			}
+		}
+
+		protected int getBankIndex(BufferedImage image, int band) {
+			return ((ComponentSampleModel) image.getRaster().getSampleModel()).getBankIndices()[band];
+		}
+	}
+
+	/**
+	 * Reads the rasters with a byte per sample (TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY, ...).
+	 */
+	private static class ByteComponent extends Component {
+		private final byte[] redData, greenData, blueData, alphaData;
+
+		private ByteComponent(BufferedImage image) {
+			super(image);
+
+			final DataBufferByte buffer = (DataBufferByte) image.getRaster().getDataBuffer();
+
+			redData = buffer.getData(getBankIndex(image, red));
+			greenData = buffer.getData(getBankIndex(image, green));
+			blueData = buffer.getData(getBankIndex(image, blue));
+			alphaData = alpha < 0 ? null : buffer.getData(getBankIndex(image, alpha));
+		}
+
+		@Override
+		public int getPixel(int x, int y) {
+			final int i = y * scanlineStride + x * pixelStride;
+
+			return (alpha < 0 ? 0xff000000 : (alphaData[i + offsets[alpha]] & 0xff) << 24)
+					| (redData[i + offsets[red]] & 0xff) << 16
+					| (greenData[i + offsets[green]] & 0xff) << 8
+					| blueData[i + offsets[blue]] & 0xff;
+		}
+
+		@Override
+		public void readRow(int y, int[] row) {
+			final int r = offsets[red], g = offsets[green], b = offsets[blue];
+
+			int i = y * scanlineStride;
+
+			if (alpha < 0) {
+				for (int x = 0; x < width; ++x, i += pixelStride) {
+					row[x] = 0xff000000 | (redData[i + r] & 0xff) << 16 | (greenData[i + g] & 0xff) << 8 | blueData[i + b] & 0xff;
+				}
+			} else {
+				final int a = offsets[alpha];
+
+				for (int x = 0; x < width; ++x, i += pixelStride) {
+					row[x] = (alphaData[i + a] & 0xff) << 24 | (redData[i + r] & 0xff) << 16 | (greenData[i + g] & 0xff) << 8 | blueData[i + b] & 0xff;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the rasters with 16 bits per sample (TYPE_USHORT_GRAY, 16-bit PNG images, ...).
+	 */
+	private static class UShortComponent extends Component {
+		private final short[] redData, greenData, blueData, alphaData;
+
+		private UShortComponent(BufferedImage image) {
+			super(image);
+
+			final DataBufferUShort buffer = (DataBufferUShort) image.getRaster().getDataBuffer();
+
+			redData = buffer.getData(getBankIndex(image, red));
+			greenData = buffer.getData(getBankIndex(image, green));
+			blueData = buffer.getData(getBankIndex(image, blue));
+			alphaData = alpha < 0 ? null : buffer.getData(getBankIndex(image, alpha));
+		}
+
+		@Override
+		public int getPixel(int x, int y) {
+			final int i = y * scanlineStride + x * pixelStride;
+
+			return (alpha < 0 ? 0xff000000 : (alphaData[i + offsets[alpha]] & 0xff00) << 16)
+					| (redData[i + offsets[red]] & 0xff00) << 8
+					| greenData[i + offsets[green]] & 0xff00
+					| (blueData[i + offsets[blue]] & 0xff00) >>> 8;
+		}
+
+		@Override
+		public void readRow(int y, int[] row) {
+			final int r = offsets[red], g = offsets[green], b = offsets[blue];
+
+			int i = y * scanlineStride;
+
+			for (int x = 0; x < width; ++x, i += pixelStride) {
+				row[x] = (alpha < 0 ? 0xff000000 : (alphaData[i + offsets[alpha]] & 0xff00) << 16)
+						| (redData[i + r] & 0xff00) << 8 | greenData[i + g] & 0xff00 | (blueData[i + b] & 0xff00) >>> 8;
+			}
+		}
+	}
+
+	/**
+	 * Reads the rasters with a pixel per integer (TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_BGR).
+	 */
+	private static class IntPacked extends PixelReader {
+		private final int[] data;
+
+		private final int offset, scanlineStride;
+
+		private final int[] masks, shifts; // the mask and the bit offset of red, green, blue and alpha
+
+		private final boolean isStandard; // true if the pixels are stored as ARGB or RGB
+
+		private IntPacked(BufferedImage image) {
+			super(image.getWidth(), image.getHeight());
+
+			final Raster raster = image.getRaster();
+			final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+			final DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+
+			data = buffer.getData();
+
+			scanlineStride = sampleModel.getScanlineStride();
+			offset = buffer.getOffset() - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX();
+
+			masks = sampleModel.getBitMasks();
+			shifts = sampleModel.getBitOffsets();
+
+			isStandard = masks[0] == 0xff0000 && masks[1] == 0xff00 && masks[2] == 0xff && (masks.length == 3 || masks[3] == 0xff000000);
+		}
+
+		@Override
+		public int getPixel(int x, int y) {
+			return toARGB(data[offset + y * scanlineStride + x]);
+		}
+
+		@Override
+		public void readRow(int y, int[] row) {
+			final int i = offset + y * scanlineStride;
+
+			if (isStandard && masks.length == 4) { // ARGB is copied as is
+				System.arraycopy(data, i, row, 0, width);
+			} else if (isStandard) { // RGB needs the opaque alpha
+				for (int x = 0; x < width; ++x) {
+					row[x] = 0xff000000 | data[i + x];
+				}
+			} else {
+				for (int x = 0; x < width; ++x) {
+					row[x] = toARGB(data[i + x]);
+				}
+			}
+		}
+
+		private int toARGB(int pixel) {
+			return (masks.length == 4 ? (pixel & masks[3]) >>> shifts[3] << 24 : 0xff000000)
+					| (pixel & masks[0]) >>> shifts[0] << 16
+					| (pixel & masks[1]) >>> shifts[1] << 8
+					| (pixel & masks[2]) >>> shifts[2];
+		}
+	}
+
+	/**
+	 * Reads the rasters of palette images (TYPE_BYTE_INDEXED, TYPE_BYTE_BINARY, 1/2/4/8-bit PNG images, ...).
+	 */
+	private static class ByteIndexed extends PixelReader {
+		private final byte[] data;
+
+		private final int[] palette; // the ARGB color of each index
+
+		private final int bits, mask; // the bits per pixel and the mask of an index
+		private final int offset, scanlineStride, bitOffset; // the offset and stride are in bytes
+
+		private ByteIndexed(BufferedImage image) {
+			super(image.getWidth(), image.getHeight());
+
+			final Raster raster = image.getRaster();
+			final SampleModel sampleModel = raster.getSampleModel();
+			final DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+			final IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+
+			data = buffer.getData();
+
+			final int translateX = -raster.getSampleModelTranslateX(), translateY = -raster.getSampleModelTranslateY();
+
+			if (sampleModel instanceof MultiPixelPackedSampleModel) {
+				final MultiPixelPackedSampleModel packed = (MultiPixelPackedSampleModel) sampleModel;
+
+				bits = packed.getPixelBitStride();
+				scanlineStride = packed.getScanlineStride();
+				bitOffset = packed.getDataBitOffset() + translateX * bits;
+				offset = buffer.getOffset() + translateY * scanlineStride;
+			} else {
+				final ComponentSampleModel component = (ComponentSampleModel) sampleModel;
+
+				bits = 8 * component.getPixelStride();
+				scanlineStride = component.getScanlineStride();
+				bitOffset = translateX * bits;
+				offset = buffer.getOffset() + translateY * scanlineStride + component.getBandOffsets()[0];
+			}
+
+			mask = (1 << Math.min(bits, 8)) - 1;
+
+			palette = new int[256];
+
+			colorModel.getRGBs(palette); // the indexes after the end of the palette stay transparent black
+		}
+
+		@Override
+		public int getPixel(int x, int y) {
+			final int bit = bitOffset + x * bits;
+
+			final int shift = 8 - (bit & 7) - Math.min(bits, 8); // the first pixel is in the highest bits of a byte
+
+			return palette[(data[offset + y * scanlineStride + (bit >>> 3)] >>> shift) & mask];
+		}
+
+		@Override
+		public void readRow(int y, int[] row) {
+			final int i = offset + y * scanlineStride;
+
+			if (bits == 8 && (bitOffset & 7) == 0) { // a byte per pixel
+				for (int x = 0, j = i + (bitOffset >>> 3); x < width; ++x, ++j) {
+					row[x] = palette[data[j] & 0xff];
+				}
+			} else {
+				super.readRow(y, row);
+			}
+		}
+	}
+
+	/**
+	 * Reads any image using BufferedImage.getRGB.
+	 */
+	private static class Generic extends PixelReader {
+		private final BufferedImage image;
+
+		private Generic(BufferedImage image) {
+			super(image.getWidth(), image.getHeight());
+
+			this.image = image;
+		}
+
+		@Override
+		public int getPixel(int x, int y) {
+			return image.getRGB(x, y);
+		}
+
+		@Override
+		public void readRow(int y, int[] row) {
+			image.getRGB(0, y, width, 1, row, 0, width);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The run-length encoded map of an image. Stores the runs of set pixels of each row.
+ * <p>
+ * The memory depends on the count of the runs, not on the image size, so it is compact for the sparse maps:
+ * a few silhouettes on a flat background. The map is built row by row (see {@link #addRow(long[], int)}),
+ * so the rows can be thresholded into a single reused row (see {@link Main#getSilhouettesRuns(PixelReader, int[], int)}).
+ */
+public class RunMap {
+	public final int width, height; // the dimensions of the map
+
+	private int rowsCount; // the count of the added rows
+
+	final int[] rows; // the index of the first run of each row. rows[y + 1] - rows[y] is the count of the runs of the row y
+	int[] starts, ends; // the x-coordinate of the first pixel and after the last pixel of each run. The runs of a row are sorted
+
+	public RunMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+
+		rows = new int[height + 1];
+		starts = new int[64];
+		ends = new int[starts.length];
+	}
+
+	/**
+	 * Encodes a map.
+	 *
+	 * @param map the map
+	 * @return the encoded map
+	 */
+	public static RunMap of(BitMap map) {
+		final RunMap runs = new RunMap(map.width, map.height);
+
+		runs.addRows(map);
+
+		return runs;
+	}
+
+	/**
+	 * Deletes all rows. Keeps the allocated arrays.
+	 */
+	void clear() {
+		rowsCount = 0;
+	}
+
+	/**
+	 * Adds all rows of a map to an empty map of the same size.
+	 *
+	 * @param map the map
+	 */
+	void addRows(BitMap map) {
+		for (int y = 0; y < map.height; ++y) {
+			addRow(map.words, y * map.wordsPerRow);
+		}
+	}
+
+	/**
+	 * Adds the next row.
+	 *
+	 * @param words  the packed row (see {@link BitMap})
+	 * @param offset the index of the first word of the row
+	 * @throws IllegalStateException if all rows are added
+	 */
+	public void addRow(long[] words, int offset) throws IllegalStateException {
+		if (rowsCount == height) {
+			throw new IllegalStateException("All rows are added");
+		}
+
+		int count = rows[rowsCount];
+
+		boolean open = false; // the last run continues in the next word
+
+		for (int k = 0, wordsCount = (width + 63) >>> 6; k < wordsCount; ++k) {
+			long word = words[offset + k];
+
+			if (open) { // continue the run of the previous word
+				final int length = Long.numberOfTrailingZeros(~word);
+
+				ends[count - 1] += length;
+
+				if (length < 64) {
+					open = false;
+
+					word &= -1L << length; // the bits of the run are handled (the shift is 0 if the length is 64)
+				} else {
+					continue;
+				}
+			}
+
+			while (word != 0) { // for each run of the word
+				final int start = Long.numberOfTrailingZeros(word);
+				final int length = Long.numberOfTrailingZeros(~(word >>> start)); // 64 if the run ends at the end of the word
+
+				if (count == starts.length) { // grow the arrays
+					starts = Arrays.copyOf(starts, count * 2);
+					ends = Arrays.copyOf(ends, count * 2);
+				}
+
+				starts[count] = (k << 6) + start;
+				ends[count] = (k << 6) + Math.min(start + length, 64);
+
+				++count;
+
+				if (start + length >= 64) {
+					open = true;
+
+					break;
+				}
+
+				word &= -1L << (start + length); // clear the run
+			}
+		}
+
+		rows[++rowsCount] = count;
+	}
+
+	/**
+	 * @return the count of the runs
+	 */
+	public int getRunsCount() {
+		return rows[rowsCount];
+	}
+
+	/**
+	 * @return the count of set pixels
+	 */
+	public int cardinality() {
+		int count = 0;
+
+		for (int i = 0; i < rows[rowsCount]; ++i) {
+			count += ends[i] - starts[i];
+		}
+
+		return count;
+	}
+
+	/**
+	 * Decodes the map.
+	 *
+	 * @return the bit map
+	 */
+	public BitMap toBitMap() {
+		final BitMap map = new BitMap(width, height);
+
+		for (int y = 0; y < rowsCount; ++y) {
+			for (int i = rows[y]; i < rows[y + 1]; ++i) {
+				for (int x = starts[i]; x < ends[i]; ++x) {
+					map.set(x, y);
+				}
+			}
+		}
+
+		return map;
+	}
+}
@@ -0,0 +1,386 @@
+package scanner;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Caches the results of the scans of encoded images and their deviation maps.
+ * <p>
+ * The entries are addressed by the SHA-256 hash of the image bytes, so the same image posted again is found whatever its name is.
+ * The results are keyed by the hash and the parameters (min deviation, min size factor and crop power).
+ * The deviation maps ({@link DeviationMap}) are keyed by the hash only: they include the background color,
+ * so a scan of a cached image with other parameters skips the decode, the pixels and the background stages.
+ * <p>
+ * The results and the deviation maps are kept in memory (least recently used are evicted when the size limit is reached).
+ * The deviation maps are also written to a directory (if it is set), which is limited by size as well:
+ * the least recently used files are deleted. The files are read and written in chunks through a small heap buffer.
+ * <p>
+ * The cache can be used by many threads.
+ */
+public class ScanCache {
+	private static final int MAGIC = 0x53434456; // the first int of a deviation map file
+	private static final int HEADER_SIZE = 12; // the magic, the width and the height
+	private static final int BUFFER_SIZE = 64 << 10; // the size of the chunks of the files in bytes
+
+	private static final String SUFFIX = ".dev"; // the suffix of the deviation map files
+
+	private static final int RESULT_OVERHEAD = 128; // the approximate size of a result without the statistics
+
+	private final Lru<Result> results;
+	private final Lru<DeviationMap> deviations;
+
+	private final File directory; // the directory of the disk tier, null if the disk tier is disabled
+	private final long maxDiskSize;
+	private long diskSize; // the size of the files of the disk tier
+
+	/**
+	 * The result of a scan.
+	 */
+	public static final class Result {
+		public final int width, height; // the dimensions of the image
+		public final Silhouettes silhouettes;
+
+		private Result(int width, int height, Silhouettes silhouettes) {
+			this.width = width;
+			this.height = height;
+			this.silhouettes = silhouettes;
+		}
+	}
+
+	/**
+	 * @param maxMemorySize the max size of the memory tier in bytes
+	 * @param directory     the directory of the disk tier, null to disable the disk tier
+	 * @param maxDiskSize   the max size of the disk tier in bytes
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ScanCache(long maxMemorySize, File directory, long maxDiskSize) throws IOException {
+		results = new Lru<>(maxMemorySize / 16, result -> RESULT_OVERHEAD + 48L * result.silhouettes.size()); // the results are small
+		deviations = new Lru<>(maxMemorySize - maxMemorySize / 16, map -> 2L * map.deviations.length + 4 * (2 * DeviationMap.MAX_DEVIATION + 3));
+
+		this.directory = directory;
+		this.maxDiskSize = maxDiskSize;
+
+		if (directory != null) {
+			Files.createDirectories(directory.toPath());
+
+			for (File file : listFiles()) {
+				diskSize += file.length();
+			}
+		}
+	}
+
+	/**
+	 * Finds silhouettes on an image or gets them from the cache.
+	 *
+	 * @param image         the encoded image
+	 * @param minDeviation  the min deviation value
+	 * @param minSizeFactor the setting of the size-filter
+	 * @param cropPower     the crop power
+	 * @param scanMode      the scan algorithm (all algorithms give the same result)
+	 * @param context       the buffers of the scanner
+	 * @return the result. It is shared with the other users of the cache, so it must not be changed
+	 * @throws IOException if the image cannot be decoded
+	 */
+	public Result scan(byte[] image, int minDeviation, int minSizeFactor, int cropPower, ScanMode scanMode, ScanContext context) throws IOException {
+		final String hash = hash(image);
+		final String key = hash + '/' + minDeviation + '/' + minSizeFactor + '/' + cropPower;
+
+		Result result = results.get(key);
+
+		if (result != null) {
+			return result;
+		}
+
+		final DeviationMap deviations = getDeviations(hash, image);
+
+		final Metrics.Probe thresholdProbe = Metrics.start(Metrics.Stage.THRESHOLD);
+
+		BitMap map = deviations.threshold(minDeviation);
+
+		thresholdProbe.stop(map.width, map.height, 0);
+
+		if (cropPower > 0) {
+			final Metrics.Probe probe = Metrics.start(Metrics.Stage.CROP);
+
+			map = new DistanceMap(map).crop(cropPower); // the same as cropPower calls of cropMap
+
+			probe.stop(map.width, map.height, 0);
+		}
+
+		final int minSize = map.width * map.height / minSizeFactor; // it is easier to read the code with this variable
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
+
+		final Silhouettes silhouettes = scanMode.createScanner(map, minSize, context).scan();
+
+		probe.stop(map.width, map.height, silhouettes.size());
+
+		result = new Result(map.width, map.height, silhouettes.copy()); // the silhouettes of the scan belong to the context
+
+		results.put(key, result);
+
+		return result;
+	}
+
+	/**
+	 * Gets the deviation map of an image from the memory, from the disk or computes it.
+	 */
+	private DeviationMap getDeviations(String hash, byte[] image) throws IOException {
+		DeviationMap map = deviations.get(hash);
+
+		if (map == null) {
+			map = read(hash);
+
+			if (map == null) {
+				final PixelReader pixels = PixelReader.of(Main.readImage(new ByteArrayInputStream(image)));
+
+				map = new DeviationMap(pixels, Main.getBackground(pixels));
+
+				write(hash, map);
+			}
+
+			deviations.put(hash, map);
+		}
+
+		return map;
+	}
+
+	/**
+	 * Reads from a channel until the buffer is full, then flips the buffer.
+	 *
+	 * @throws IOException if the file is ended
+	 */
+	private static void fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new IOException("Unexpected end of file");
+			}
+		}
+
+		buffer.flip();
+	}
+
+	/**
+	 * Writes the bytes of a buffer to a channel and clears the buffer.
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+
+		buffer.clear();
+	}
+
+	/**
+	 * Reads a deviation map from the disk tier.
+	 *
+	 * @param hash the hash of the image
+	 * @return the map or null if it is not found
+	 */
+	private synchronized DeviationMap read(String hash) {
+		if (directory == null) {
+			return null;
+		}
+
+		final File file = new File(directory, hash + SUFFIX);
+
+		if (!file.isFile()) {
+			return null;
+		}
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.limit(HEADER_SIZE);
+			fill(channel, buffer);
+
+			final int magic = buffer.getInt(), width = buffer.getInt(), height = buffer.getInt();
+
+			if (magic != MAGIC || width < 0 || height < 0 || channel.size() != HEADER_SIZE + 2L * width * height) {
+				throw new IOException("Corrupted file");
+			}
+
+			final short[] deviations = new short[width * height];
+
+			for (int i = 0; i < deviations.length; ) { // the deviations follow the header
+				buffer.clear().limit((int) Math.min(BUFFER_SIZE, 2L * (deviations.length - i)));
+				fill(channel, buffer);
+
+				final int count = buffer.remaining() / 2;
+
+				buffer.asShortBuffer().get(deviations, i, count);
+				i += count;
+			}
+
+			file.setLastModified(System.currentTimeMillis()); // the files are evicted in the order of the last use
+
+			return new DeviationMap(width, height, deviations);
+		} catch (IOException | RuntimeException e) {
+			diskSize -= file.length();
+
+			file.delete(); // the file is written again
+
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a deviation map to the disk tier and evicts the least recently used files if the tier is too large.
+	 *
+	 * @param hash the hash of the image
+	 * @param map  the map
+	 */
+	private synchronized void write(String hash, DeviationMap map) {
+		final long size = HEADER_SIZE + 2L * map.deviations.length;
+
+		final File file = new File(directory, hash + SUFFIX);
+
+		if (directory == null || size > maxDiskSize || file.exists()) { // the file can be written by another thread
+			return;
+		}
+		final File temporary = new File(directory, hash + ".tmp");
+
+		try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+			buffer.putInt(MAGIC).putInt(map.width).putInt(map.height);
+
+			final short[] deviations = map.deviations;
+
+			for (int i = 0; i < deviations.length; ) {
+				final int count = Math.min(buffer.remaining() / 2, deviations.length - i);
+
+				buffer.asShortBuffer().put(deviations, i, count);
+				buffer.position(buffer.position() + 2 * count);
+				i += count;
+
+				flush(channel, buffer);
+			}
+
+			flush(channel, buffer); // the header of the empty map
+		} catch (IOException e) {
+			temporary.delete();
+
+			return; // the map is kept in memory only
+		}
+
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); // the readers never see a part of the file
+		} catch (IOException e) {
+			temporary.delete();
+
+			return;
+		}
+
+		diskSize += size;
+
+		if (diskSize > maxDiskSize) { // delete the least recently used files
+			final File[] files = listFiles();
+
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+			for (int i = 0; i < files.length && diskSize > maxDiskSize; ++i) {
+				if (!files[i].equals(file)) {
+					final long length = files[i].length();
+
+					if (files[i].delete()) {
+						diskSize -= length;
+					}
+				}
+			}
+		}
+	}
+
+	private File[] listFiles() {
+		final File[] files = directory.listFiles((parent, name) -> name.endsWith(SUFFIX));
+
+		return files == null ? new File[0] : files;
+	}
+
+	/**
+	 * @param bytes the data
+	 * @return the SHA-256 hash of the data as a hexadecimal string
+	 */
+	private static String hash(byte[] bytes) {
+		final byte[] digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java platform supports SHA-256
+		}
+
+		final StringBuilder builder = new StringBuilder(2 * digest.length);
+
+		for (byte b : digest) {
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * The memory tier: the map which evicts the least recently used entries when the total size of the entries is too large.
+	 *
+	 * @param <V> the type of the values
+	 */
+	private static class Lru<V> {
+		private final LinkedHashMap<String, V> entries = new LinkedHashMap<>(16, 0.75f, true); // in the order of the last use
+
+		private final long maxSize;
+		private final ToLongFunction<V> sizeOf;
+
+		private long size; // the total size of the entries
+
+		private Lru(long maxSize, ToLongFunction<V> sizeOf) {
+			this.maxSize = maxSize;
+			this.sizeOf = sizeOf;
+		}
+
+		private synchronized V get(String key) {
+			return entries.get(key);
+		}
+
+		private synchronized void put(String key, V value) {
+			final long valueSize = sizeOf.applyAsLong(value);
+
+			if (valueSize > maxSize) {
+				return; // the value does not fit the cache
+			}
+
+			final V old = entries.put(key, value);
+
+			if (old != null) {
+				size -= sizeOf.applyAsLong(old);
+			}
+
+			size += valueSize;
+
+			for (Iterator<Map.Entry<String, V>> iterator = entries.entrySet().iterator(); size > maxSize; ) { // the eldest first
+				final Map.Entry<String, V> eldest = iterator.next();
+
+				size -= sizeOf.applyAsLong(eldest.getValue());
+
+				iterator.remove();
+			}
+		}
+	}
+}
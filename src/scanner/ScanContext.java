@@ -0,0 +1,114 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The buffers of the scanners which are kept between scans.
+ * <p>
+ * A scan of a map with the same dimensions as the previous one allocates nothing (the parallel scanner reuses
+ * its fork-join tasks). The scanners of different algorithms can share a context,
+ * but a context must not be used by two scans at the same time.
+ * <p>
+ * The result of a scan ({@link Silhouettes}) and the label image belong to the context, so they are changed by the next scan.
+ */
+public final class ScanContext {
+	private BitMap checked; // the checked cells of DFS and BFS
+
+	private int[] labels; // the labels of the cells. The index of a cell is y * width + x
+
+	private int[] queue = new int[1024]; // the ring buffer of the cells of BFS. The capacity is a power of two
+
+	private int[] indices = new int[1024]; // the index of the silhouette of each root label + 1
+
+	private RunMap runs; // the runs of the map of the run scanner
+
+	final UnionFind sets = new UnionFind(1024); // the equivalences of the provisional labels
+
+	final Silhouettes silhouettes = new Silhouettes(); // the result
+
+	/**
+	 * Gets the map of the checked cells. All cells are unchecked.
+	 *
+	 * @param width  the width of the map
+	 * @param height the height of the map
+	 * @return the map
+	 */
+	BitMap getChecked(int width, int height) {
+		if (checked == null || checked.width != width || checked.height != height) {
+			checked = new BitMap(width, height);
+		} else {
+			checked.clear(); // 1 bit per cell, so it is cheaper than a visit stamp per cell
+		}
+
+		return checked;
+	}
+
+	/**
+	 * Gets the labels of the cells. The labels are not cleared.
+	 *
+	 * @param size the count of the cells
+	 * @return the labels
+	 */
+	int[] getLabels(int size) {
+		if (labels == null || labels.length != size) {
+			labels = new int[size];
+		}
+
+		return labels;
+	}
+
+	/**
+	 * @return the ring buffer of the cells of BFS
+	 */
+	int[] getQueue() {
+		return queue;
+	}
+
+	/**
+	 * Doubles the capacity of the full ring buffer of the cells of BFS.
+	 *
+	 * @param head the index of the first cell in the ring buffer
+	 * @return the new ring buffer. The first cell is at index 0, and the last one is at index (old capacity - 1)
+	 */
+	int[] growQueue(int head) {
+		final int[] grown = new int[queue.length * 2];
+
+		System.arraycopy(queue, head, grown, 0, queue.length - head);
+		System.arraycopy(queue, 0, grown, queue.length - head, head);
+
+		return queue = grown;
+	}
+
+	/**
+	 * Gets the empty run-length encoded map.
+	 *
+	 * @param width  the width of the map
+	 * @param height the height of the map
+	 * @return the map
+	 */
+	RunMap getRuns(int width, int height) {
+		if (runs == null || runs.width != width || runs.height != height) {
+			runs = new RunMap(width, height);
+		} else {
+			runs.clear();
+		}
+
+		return runs;
+	}
+
+	/**
+	 * Gets the indices of the silhouettes of the root labels. All indices are 0.
+	 *
+	 * @param size the count of the labels
+	 * @return the indices
+	 */
+	int[] getIndices(int size) {
+		if (indices.length < size) {
+			indices = new int[Math.max(size, indices.length * 2)];
+		} else {
+			Arrays.fill(indices, 0, size, 0);
+		}
+
+		return indices;
+	}
+}
@@ -0,0 +1,60 @@
+package scanner;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The algorithms which can be used to scan an image for silhouettes.
+ */
+public enum ScanMode {
+	DFS { // needs a big stack size (VM option -Xss256m) to scan large images
+		@Override
+		public ImageScanner createScanner(BitMap map, int minSize, ScanContext context) {
+			return new ImageScannerDFS(map, minSize, context);
+		}
+	},
+	BFS {
+		@Override
+		public ImageScanner createScanner(BitMap map, int minSize, ScanContext context) {
+			return new ImageScannerBFS(map, minSize, context);
+		}
+	},
+	UNION_FIND {
+		@Override
+		public ImageScanner createScanner(BitMap map, int minSize, ScanContext context) {
+			return new ImageScannerUnionFind(map, minSize, context);
+		}
+	},
+	PARALLEL {
+		@Override
+		public ImageScanner createScanner(BitMap map, int minSize, ScanContext context) {
+			return new ImageScannerParallel(map, minSize, ForkJoinPool.commonPool(), context);
+		}
+	},
+	RUNS { // labels the runs of the rows, it is fast for the sparse maps
+		@Override
+		public ImageScanner createScanner(BitMap map, int minSize, ScanContext context) {
+			return new ImageScannerRuns(map, minSize, context);
+		}
+	};
+
+	/**
+	 * Creates a scanner which uses the algorithm.
+	 *
+	 * @param map     the map to scan
+	 * @param minSize the min size of the silhouette
+	 * @return the scanner
+	 */
+	public ImageScanner createScanner(BitMap map, int minSize) {
+		return createScanner(map, minSize, new ScanContext());
+	}
+
+	/**
+	 * Creates a scanner which uses the algorithm and the buffers of a context.
+	 *
+	 * @param map     the map to scan
+	 * @param minSize the min size of the silhouette
+	 * @param context the buffers which are kept between scans
+	 * @return the scanner
+	 */
+	public abstract ImageScanner createScanner(BitMap map, int minSize, ScanContext context);
+}
@@ -0,0 +1,381 @@
+package scanner;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts silhouettes on the images posted over HTTP, so the JVM is started once and the code stays compiled.
+ * <p>
+ * Usage: POST the image bytes to /scan?minDeviation=130&amp;minSizeFactor=140&amp;cropPower=0 (the parameters are optional).
+ * The response is a JSON object with the silhouettes count and the statistics of each silhouette (see {@link Silhouettes}):
+ * <pre>
+ * {"width":1508,"height":745,"count":1,"millis":12,"silhouettes":[{"area":5120,"firstX":10,"firstY":4,"minX":3,"minY":4,"maxX":90,
+ * "maxY":70,"centroidX":41.5,"centroidY":30.2,"perimeter":410}]}
+ * </pre>
+ * The scans run on the given count of threads. The requests which cannot be scanned at once wait in a bounded queue,
+ * and the requests which do not fit the queue are rejected with 429 (Too Many Requests) before their images are read,
+ * so an overloaded server responds fast and keeps at most (threads + queue capacity) images in memory.
+ * <p>
+ * Before the server accepts requests, it scans generated images to let the JIT compiler compile the scan code.
+ */
+public class ScanServer {
+	private static final int MAX_IMAGE_SIZE = 256 << 20; // the max size of the posted image in bytes
+
+	private static final int WARM_UP_SCANS = 20; // the count of the warm-up scans per thread
+
+	private final int minDeviation, minSizeFactor, cropPower; // the default parameters
+	private final ScanMode scanMode;
+
+	private final int threads, queueCapacity;
+
+	private final ThreadLocal<ScanContext> contexts = ThreadLocal.withInitial(ScanContext::new); // the buffers of each scan thread
+
+	private ScanCache cache; // the cache of the results, null if the results are not cached
+
+	private HttpServer server;
+	private ThreadPoolExecutor scanners; // the scan threads
+	private ExecutorService handlers; // the threads which receive the requests
+	private Semaphore admissions; // a permit per request which is read, waiting or scanned: threads + queue capacity
+
+	/**
+	 * @param minDeviation  the default min deviation value
+	 * @param minSizeFactor the default setting of the size-filter
+	 * @param cropPower     the default crop power
+	 * @param scanMode      the scan algorithm
+	 * @param threads       the count of the scan threads
+	 * @param queueCapacity the max count of the requests waiting for a scan thread (at least 1)
+	 */
+	public ScanServer(int minDeviation, int minSizeFactor, int cropPower, ScanMode scanMode, int threads, int queueCapacity) {
+		this.minDeviation = minDeviation;
+		this.minSizeFactor = minSizeFactor;
+		this.cropPower = cropPower;
+		this.scanMode = scanMode;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Sets the cache of the results. The same images posted again are not scanned again (see {@link ScanCache}).
+	 *
+	 * @param cache the cache, null to disable the cache
+	 */
+	public void setCache(ScanCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Warms up the scan code and starts the server.
+	 *
+	 * @param port the port to listen, 0 to choose a free port
+	 * @return the port of the server
+	 * @throws IOException          if the server cannot be started
+	 * @throws InterruptedException if the thread is interrupted during the warm-up
+	 */
+	public int start(int port) throws IOException, InterruptedException {
+		scanners = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity));
+		handlers = Executors.newCachedThreadPool(); // the handlers without a permit only reject their requests, so they end at once
+		admissions = new Semaphore(threads + queueCapacity);
+
+		warmUp();
+
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/scan", this::handle);
+		server.setExecutor(handlers);
+		server.start();
+
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the server. The scans which are running are finished.
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+		}
+
+		scanners.shutdown();
+		handlers.shutdown();
+	}
+
+	/**
+	 * Scans generated images on all scan threads, so the scan code is compiled before the first request.
+	 */
+	private void warmUp() throws IOException, InterruptedException {
+		final byte[] image = createWarmUpImage();
+
+		final List<Future<String>> scans = new ArrayList<>();
+
+		for (int i = 0; i < WARM_UP_SCANS * threads; ++i) {
+			scans.add(submit(image, new HashMap<>(), false)); // the cached results would not warm up the decode
+
+			if (scans.size() == threads) { // a scan per thread, so the queue is not used
+				waitAll(scans);
+			}
+		}
+
+		waitAll(scans);
+
+		Metrics.reset(); // the warm-up is not measured
+	}
+
+	private static void waitAll(List<Future<String>> scans) throws IOException, InterruptedException {
+		for (Future<String> scan : scans) {
+			try {
+				scan.get();
+			} catch (ExecutionException e) {
+				throw new IOException("Warm-up failed", e.getCause());
+			}
+		}
+
+		scans.clear();
+	}
+
+	/**
+	 * @return the PNG image with random ellipses on the uniform background
+	 */
+	private static byte[] createWarmUpImage() throws IOException {
+		final BufferedImage image = new BufferedImage(512, 384, BufferedImage.TYPE_3BYTE_BGR);
+		final Graphics2D graphics = image.createGraphics();
+
+		final Random random = new Random(0);
+
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+		graphics.setColor(Color.BLACK);
+
+		for (int i = 0; i < 40; ++i) {
+			graphics.fillOval(random.nextInt(image.getWidth()), random.nextInt(image.getHeight()), 5 + random.nextInt(60), 5 + random.nextInt(60));
+		}
+
+		graphics.dispose();
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		ImageIO.write(image, "png", bytes);
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Queues the scan of an image.
+	 *
+	 * @param image      the encoded image
+	 * @param parameters the query parameters
+	 * @param cached     use the cache if it is set
+	 * @return the JSON result
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	private Future<String> submit(byte[] image, Map<String, String> parameters, boolean cached) {
+		final int minDeviation = getParameter(parameters, "minDeviation", this.minDeviation, 0, DeviationMap.MAX_DEVIATION + 1);
+		final int minSizeFactor = getParameter(parameters, "minSizeFactor", this.minSizeFactor, 1, Integer.MAX_VALUE);
+		final int cropPower = getParameter(parameters, "cropPower", this.cropPower, 0, Short.MAX_VALUE);
+
+		return scanners.submit(() -> {
+			final long start = System.nanoTime();
+
+			if (cached && cache != null) {
+				final ScanCache.Result result = cache.scan(image, minDeviation, minSizeFactor, cropPower, scanMode, contexts.get());
+
+				return toJSON(result.width, result.height, result.silhouettes, (System.nanoTime() - start) / 1_000_000);
+			}
+
+			final PixelReader pixels = PixelReader.of(Main.readImage(new ByteArrayInputStream(image)));
+
+			final Silhouettes silhouettes = Main.findSilhouettes(pixels, minDeviation, minSizeFactor, cropPower, 0, scanMode, contexts.get());
+
+			return toJSON(pixels.width, pixels.height, silhouettes, (System.nanoTime() - start) / 1_000_000); // the silhouettes belong to the context of this thread
+		});
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				exchange.getResponseHeaders().set("Allow", "POST");
+				send(exchange, 405, error("Use POST"));
+				return;
+			}
+
+			if (!admissions.tryAcquire()) { // do not read the image if it cannot be queued
+				reject(exchange);
+				return;
+			}
+
+			try {
+				scan(exchange);
+			} finally {
+				admissions.release();
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Reads the image of a request, waits for its scan and sends the result.
+	 */
+	private void scan(HttpExchange exchange) throws IOException {
+		final Future<String> scan;
+
+		try {
+			scan = submit(readBody(exchange.getRequestBody()), parseQuery(exchange.getRequestURI().getRawQuery()), true);
+		} catch (IllegalArgumentException e) {
+			send(exchange, 400, error(e.getMessage()));
+			return;
+		} catch (RejectedExecutionException e) {
+			reject(exchange);
+			return;
+		}
+
+		try {
+			send(exchange, 200, scan.get());
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+
+			if (cause instanceof IOException) {
+				send(exchange, 400, error(cause.getMessage())); // the image cannot be decoded
+			} else {
+				send(exchange, 500, error(cause.getMessage() == null ? cause.getClass().getSimpleName() : cause.getMessage()));
+			}
+		} catch (InterruptedException e) {
+			scan.cancel(true);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void reject(HttpExchange exchange) throws IOException {
+		exchange.getResponseHeaders().set("Retry-After", "1");
+		send(exchange, 429, error("The server is busy"));
+	}
+
+	private static byte[] readBody(InputStream input) throws IOException {
+		final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[64 << 10];
+
+		for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+			if (body.size() + read > MAX_IMAGE_SIZE) {
+				throw new IllegalArgumentException("The image is too large");
+			}
+
+			body.write(buffer, 0, read);
+		}
+
+		if (body.size() == 0) {
+			throw new IllegalArgumentException("The image is empty");
+		}
+
+		return body.toByteArray();
+	}
+
+	private static Map<String, String> parseQuery(String query) {
+		final Map<String, String> parameters = new HashMap<>();
+
+		if (query != null) {
+			for (String pair : query.split("&")) {
+				final int equals = pair.indexOf('=');
+
+				if (equals > 0) {
+					parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+							URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+				}
+			}
+		}
+
+		return parameters;
+	}
+
+	/**
+	 * @param parameters   the query parameters
+	 * @param name         the name of the parameter
+	 * @param defaultValue the value if the parameter is not set
+	 * @param min          the min value (inclusive)
+	 * @param max          the max value (inclusive)
+	 * @return the value of the parameter
+	 * @throws IllegalArgumentException if the value is not an integer or it is out of the range
+	 */
+	private static int getParameter(Map<String, String> parameters, String name, int defaultValue, int min, int max) {
+		final String value = parameters.get(name);
+
+		if (value == null) {
+			return defaultValue;
+		}
+
+		try {
+			final int result = Integer.parseInt(value);
+
+			if (result >= min && result <= max) {
+				return result;
+			}
+		} catch (NumberFormatException e) {
+			// the error is thrown below
+		}
+
+		throw new IllegalArgumentException("The parameter " + name + " must be an integer in " + min + ".." + max);
+	}
+
+	private static void send(HttpExchange exchange, int status, String json) throws IOException {
+		final byte[] body = json.getBytes(StandardCharsets.UTF_8);
+
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, body.length);
+
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + BatchScanner.escape(message) + '}';
+	}
+
+	private static String toJSON(int width, int height, Silhouettes silhouettes, long millis) {
+		final StringBuilder builder = new StringBuilder(64 + 160 * silhouettes.size());
+
+		builder.append("{\"width\":").append(width).append(",\"height\":").append(height)
+				.append(",\"count\":").append(silhouettes.size()).append(",\"millis\":").append(millis).append(",\"silhouettes\":[");
+
+		for (int i = 0; i < silhouettes.size(); ++i) {
+			if (i > 0) {
+				builder.append(',');
+			}
+
+			builder.append("{\"area\":").append(silhouettes.getArea(i))
+					.append(",\"firstX\":").append(silhouettes.getFirstX(i)).append(",\"firstY\":").append(silhouettes.getFirstY(i))
+					.append(",\"minX\":").append(silhouettes.getMinX(i)).append(",\"minY\":").append(silhouettes.getMinY(i))
+					.append(",\"maxX\":").append(silhouettes.getMaxX(i)).append(",\"maxY\":").append(silhouettes.getMaxY(i))
+					.append(",\"centroidX\":").append(String.format(Locale.ROOT, "%.3f", silhouettes.getCentroidX(i)))
+					.append(",\"centroidY\":").append(String.format(Locale.ROOT, "%.3f", silhouettes.getCentroidY(i)))
+					.append(",\"perimeter\":").append(silhouettes.getPerimeter(i)).append('}');
+		}
+
+		return builder.append("]}").toString();
+	}
+}
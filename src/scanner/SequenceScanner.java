@@ -0,0 +1,192 @@
+package scanner;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Counts silhouettes on the frames of a sequence, for example a video or a timelapse exported as numbered images.
+ * <p>
+ * The frames are expected to be similar, so the work of the previous frame is reused:
+ * the image, the map and the scanner buffers are reused while the frames have the same size,
+ * and the map is labeled incrementally (see {@link ImageScannerParallel#setIncremental(boolean)}):
+ * only the stripes of rows which are changed since the previous frame are labeled again.
+ * A mostly static scene costs the decode, the threshold and a comparison of the maps.
+ */
+public class SequenceScanner {
+	/**
+	 * The order of the frames: the shorter names first, then the names in the alphabetical order.
+	 * So the numbered frames without leading zeros (frame9, frame10) are in the order of their numbers.
+	 */
+	public static final Comparator<File> FRAME_ORDER = Comparator.comparingInt((File file) -> file.getName().length()).thenComparing(File::getName);
+
+	private final int minDeviation, minSizeFactor, cropPower;
+
+	private final ForkJoinPool pool;
+
+	private BufferedImage image; // the last decoded frame, it is the destination of the next decode
+	private BitMap map, cropped; // the map of the last frame and its cropped map
+	private DistanceMap distances; // the distances of the cells of the map to crop it
+	private int[] row, deviations; // the buffers of the threshold
+
+	private ImageScannerParallel scanner; // the scanner which keeps the labels of the last frame
+
+	public SequenceScanner(int minDeviation, int minSizeFactor, int cropPower, ForkJoinPool pool) {
+		this.minDeviation = minDeviation;
+		this.minSizeFactor = minSizeFactor;
+		this.cropPower = cropPower;
+		this.pool = pool;
+	}
+
+	/**
+	 * Scans the frames and prints a CSV line per frame: the file, the silhouettes count, the count of the labeled stripes
+	 * and the count of all stripes, the time of the frame in milliseconds.
+	 *
+	 * @param files the frames in the order of the sequence
+	 * @param out   the stream to print the results
+	 * @return the count of the labeled stripes and of all stripes of all frames as array[2]
+	 * @throws IOException if a frame cannot be read
+	 */
+	public long[] run(List<File> files, PrintStream out) throws IOException {
+		final long[] stripes = new long[2];
+
+		out.println("file,silhouettes,labeled stripes,stripes,millis");
+
+		for (File file : files) {
+			final long start = System.nanoTime();
+
+			final int count = findSilhouettes(file).size();
+
+			stripes[0] += scanner.getScannedStripes();
+			stripes[1] += scanner.getStripesCount();
+
+			out.println(BatchScanner.quote(file.getPath()) + ',' + count + ',' + scanner.getScannedStripes() + ',' + scanner.getStripesCount()
+					+ ',' + (System.nanoTime() - start) / 1_000_000);
+		}
+
+		return stripes;
+	}
+
+	/**
+	 * Finds silhouettes on the next frame.
+	 *
+	 * @param file the frame
+	 * @return the silhouettes. The result is changed by the next frame
+	 * @throws IOException if the frame cannot be read
+	 */
+	public Silhouettes findSilhouettes(File file) throws IOException {
+		final PixelReader pixels = PixelReader.of(decode(file));
+
+		final int width = pixels.width, height = pixels.height;
+
+		if (map == null || map.width != width || map.height != height) {
+			map = new BitMap(width, height);
+			row = new int[width];
+			deviations = new int[width];
+
+			if (cropPower > 0) {
+				cropped = new BitMap(width, height);
+				distances = new DistanceMap(width, height);
+			}
+		}
+
+		final int[] background = Main.getBackground(pixels);
+
+		final Metrics.Probe thresholdProbe = Metrics.start(Metrics.Stage.THRESHOLD);
+
+		for (int y = 0; y < height; ++y) { // the rows are overwritten, so the map of the previous frame is not cleared
+			pixels.readRow(y, row);
+
+			Deviations.thresholdRow(row, width, background, minDeviation, deviations, map.words, y * map.wordsPerRow);
+		}
+
+		thresholdProbe.stop(width, height, 0);
+
+		BitMap scanned = map;
+
+		if (cropPower > 0) {
+			final Metrics.Probe probe = Metrics.start(Metrics.Stage.CROP);
+
+			distances.compute(map);
+
+			scanned = distances.crop(cropPower, cropped); // the same as cropPower calls of cropMap
+
+			probe.stop(width, height, 0);
+		}
+
+		final int minSize = width * height / minSizeFactor; // it is easier to read the code with this variable
+
+		if (scanner == null) {
+			scanner = new ImageScannerParallel(scanned, minSize, pool, new ScanContext());
+			scanner.setIncremental(true);
+		}
+
+		scanner.map = scanned;
+		scanner.minSize = minSize;
+
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.SCAN);
+
+		final Silhouettes silhouettes = scanner.scan();
+
+		probe.stop(width, height, silhouettes.size());
+
+		return silhouettes;
+	}
+
+	/**
+	 * Decodes a frame into the image of the previous frame if the frames have the same size and type.
+	 * The indexed images are not reused: the destination keeps its palette, so the indices of the frame would be read through the palette of the previous one.
+	 */
+	private BufferedImage decode(File file) throws IOException {
+		final Metrics.Probe probe = Metrics.start(Metrics.Stage.DECODE);
+
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			if (input == null) {
+				throw new IOException("Cannot open file \"" + file + "\"");
+			}
+
+			final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format");
+			}
+
+			final ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(input, true, true);
+
+				final ImageReadParam param = reader.getDefaultReadParam();
+
+				if (image != null && image.getType() != BufferedImage.TYPE_CUSTOM && !(image.getColorModel() instanceof IndexColorModel)
+						&& reader.getWidth(0) == image.getWidth() && reader.getHeight(0) == image.getHeight()) {
+					for (Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0); types.hasNext(); ) {
+						if (types.next().getBufferedImageType() == image.getType()) {
+							param.setDestination(image); // the pixels of the previous frame are overwritten
+							break;
+						}
+					}
+				}
+
+				image = reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+
+		probe.stop(image.getWidth(), image.getHeight(), 0);
+
+		return image;
+	}
+}
@@ -0,0 +1,323 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * The silhouettes found by a scan and their statistics.
+ * <p>
+ * The statistics are kept in parallel arrays (a column per value), the index of a silhouette is 0..size() - 1.
+ * The silhouettes are in the order of their first cells (the upper row first, then the left cell first).
+ * The statistics are accumulated by the scanners while they visit the cells, so no second pass is needed.
+ */
+public final class Silhouettes {
+	private int count; // the count of the silhouettes
+
+	private int[] area, firstX, minX, minY, maxX, maxY, perimeter;
+
+	private long[] sumX, sumY; // the sums of the coordinates of the cells (int can overflow on large images)
+
+	private int[] newLabels = new int[0]; // the result of the filter, it is reused
+
+	Silhouettes() {
+		this(16);
+	}
+
+	Silhouettes(int capacity) {
+		capacity = Math.max(capacity, 1);
+
+		area = new int[capacity];
+		firstX = new int[capacity];
+		minX = new int[capacity];
+		minY = new int[capacity];
+		maxX = new int[capacity];
+		maxY = new int[capacity];
+		perimeter = new int[capacity];
+		sumX = new long[capacity];
+		sumY = new long[capacity];
+	}
+
+	/**
+	 * @return the count of the silhouettes
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the count of the cells of the silhouette
+	 */
+	public int getArea(int i) {
+		return area[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the x-coordinate of the first (left-upper) cell of the silhouette
+	 */
+	public int getFirstX(int i) {
+		return firstX[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the y-coordinate of the first (left-upper) cell of the silhouette
+	 */
+	public int getFirstY(int i) {
+		return minY[i]; // the first cell is in the upper row
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the left column of the bounding box (inclusive)
+	 */
+	public int getMinX(int i) {
+		return minX[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the upper row of the bounding box (inclusive)
+	 */
+	public int getMinY(int i) {
+		return minY[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the right column of the bounding box (inclusive)
+	 */
+	public int getMaxX(int i) {
+		return maxX[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the lower row of the bounding box (inclusive)
+	 */
+	public int getMaxY(int i) {
+		return maxY[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the mean x-coordinate of the cells of the silhouette
+	 */
+	public double getCentroidX(int i) {
+		return (double) sumX[i] / area[i];
+	}
+
+	/**
+	 * @param i the index of the silhouette
+	 * @return the mean y-coordinate of the cells of the silhouette
+	 */
+	public double getCentroidY(int i) {
+		return (double) sumY[i] / area[i];
+	}
+
+	/**
+	 * The perimeter is the count of the cell sides between the silhouette and the background or the image border.
+	 * The sides of the holes are included.
+	 *
+	 * @param i the index of the silhouette
+	 * @return the perimeter length in cells
+	 */
+	public int getPerimeter(int i) {
+		return perimeter[i];
+	}
+
+	/**
+	 * Adds an empty silhouette.
+	 *
+	 * @return the index of the silhouette
+	 */
+	int add() {
+		if (count == area.length) { // grow the arrays
+			final int capacity = count * 2;
+
+			area = Arrays.copyOf(area, capacity);
+			firstX = Arrays.copyOf(firstX, capacity);
+			minX = Arrays.copyOf(minX, capacity);
+			minY = Arrays.copyOf(minY, capacity);
+			maxX = Arrays.copyOf(maxX, capacity);
+			maxY = Arrays.copyOf(maxY, capacity);
+			perimeter = Arrays.copyOf(perimeter, capacity);
+			sumX = Arrays.copyOf(sumX, capacity);
+			sumY = Arrays.copyOf(sumY, capacity);
+		}
+
+		area[count] = 0;
+		firstX[count] = minX[count] = minY[count] = Integer.MAX_VALUE;
+		maxX[count] = maxY[count] = -1;
+		perimeter[count] = 0;
+		sumX[count] = sumY[count] = 0;
+
+		return count++;
+	}
+
+	/**
+	 * Adds a cell to a silhouette.
+	 *
+	 * @param i     the index of the silhouette
+	 * @param x     the x-coordinate of the cell
+	 * @param y     the y-coordinate of the cell
+	 * @param edges the count of the sides of the cell which are on the perimeter
+	 */
+	void addCell(int i, int x, int y, int edges) {
+		if (y < minY[i] || y == minY[i] && x < firstX[i]) {
+			firstX[i] = x;
+			minY[i] = y;
+		}
+
+		++area[i];
+
+		minX[i] = Math.min(minX[i], x);
+		maxX[i] = Math.max(maxX[i], x);
+		maxY[i] = Math.max(maxY[i], y);
+
+		perimeter[i] += edges;
+
+		sumX[i] += x;
+		sumY[i] += y;
+	}
+
+	/**
+	 * Adds a run of cells of a row to a silhouette.
+	 *
+	 * @param i     the index of the silhouette
+	 * @param fromX the x-coordinate of the first cell of the run
+	 * @param toX   the x-coordinate of the last cell of the run (inclusive)
+	 * @param y     the y-coordinate of the run
+	 * @param edges the count of the sides of the cells of the run which are on the perimeter
+	 */
+	void addRun(int i, int fromX, int toX, int y, int edges) {
+		if (y < minY[i] || y == minY[i] && fromX < firstX[i]) {
+			firstX[i] = fromX;
+			minY[i] = y;
+		}
+
+		final int length = toX - fromX + 1;
+
+		area[i] += length;
+
+		minX[i] = Math.min(minX[i], fromX);
+		maxX[i] = Math.max(maxX[i], toX);
+		maxY[i] = Math.max(maxY[i], y);
+
+		perimeter[i] += edges;
+
+		sumX[i] += (long) (fromX + toX) * length / 2;
+		sumY[i] += (long) y * length;
+	}
+
+	/**
+	 * Adds the cells of a part of a silhouette to a silhouette.
+	 *
+	 * @param i     the index of the silhouette
+	 * @param other the silhouettes of the part
+	 * @param j     the index of the part
+	 */
+	void merge(int i, Silhouettes other, int j) {
+		if (other.minY[j] < minY[i] || other.minY[j] == minY[i] && other.firstX[j] < firstX[i]) {
+			firstX[i] = other.firstX[j];
+			minY[i] = other.minY[j];
+		}
+
+		area[i] += other.area[j];
+
+		minX[i] = Math.min(minX[i], other.minX[j]);
+		maxX[i] = Math.max(maxX[i], other.maxX[j]);
+		maxY[i] = Math.max(maxY[i], other.maxY[j]);
+
+		perimeter[i] += other.perimeter[j];
+
+		sumX[i] += other.sumX[j];
+		sumY[i] += other.sumY[j];
+	}
+
+	/**
+	 * Changes the perimeter of a silhouette, for example when its parts are joined.
+	 *
+	 * @param i     the index of the silhouette
+	 * @param delta the change of the perimeter
+	 */
+	void addPerimeter(int i, int delta) {
+		perimeter[i] += delta;
+	}
+
+	/**
+	 * @return the copy of the silhouettes which is not changed by the next scan
+	 */
+	Silhouettes copy() {
+		final Silhouettes copy = new Silhouettes(count);
+
+		System.arraycopy(area, 0, copy.area, 0, count);
+		System.arraycopy(firstX, 0, copy.firstX, 0, count);
+		System.arraycopy(minX, 0, copy.minX, 0, count);
+		System.arraycopy(minY, 0, copy.minY, 0, count);
+		System.arraycopy(maxX, 0, copy.maxX, 0, count);
+		System.arraycopy(maxY, 0, copy.maxY, 0, count);
+		System.arraycopy(perimeter, 0, copy.perimeter, 0, count);
+		System.arraycopy(sumX, 0, copy.sumX, 0, count);
+		System.arraycopy(sumY, 0, copy.sumY, 0, count);
+
+		copy.count = count;
+
+		return copy;
+	}
+
+	/**
+	 * Deletes all silhouettes. Keeps the allocated arrays.
+	 */
+	void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Deletes the last added silhouette.
+	 */
+	void removeLast() {
+		--count;
+	}
+
+	/**
+	 * Deletes the silhouettes which are smaller than min size. Keeps the order of the others.
+	 *
+	 * @param minSize the min size of the silhouette
+	 * @return the label of each silhouette before the filter: its new index + 1 or 0 if it is deleted.
+	 * The array is reused by the next filter and can be longer than the count of the silhouettes
+	 */
+	int[] filter(int minSize) {
+		if (newLabels.length < count) {
+			newLabels = new int[area.length];
+		}
+
+		final int[] labels = newLabels;
+
+		int kept = 0;
+
+		for (int i = 0; i < count; ++i) {
+			if (area[i] >= minSize) { // filter noise and small objects
+				labels[i] = kept + 1;
+
+				area[kept] = area[i];
+				firstX[kept] = firstX[i];
+				minX[kept] = minX[i];
+				minY[kept] = minY[i];
+				maxX[kept] = maxX[i];
+				maxY[kept] = maxY[i];
+				perimeter[kept] = perimeter[i];
+				sumX[kept] = sumX[i];
+				sumY[kept] = sumY[i];
+
+				++kept;
+			} else {
+				labels[i] = 0;
+			}
+		}
+
+		count = kept;
+
+		return labels;
+	}
+}
@@ -0,0 +1,41 @@
+package scanner;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The Flight Recorder event of a stage of the silhouettes search (see {@link Metrics}).
+ * Enable it with -XX:StartFlightRecording or the "scanner.Stage" setting of a recording.
+ */
+@Name("scanner.Stage")
+@Label("Silhouettes Finder Stage")
+@Category("Silhouettes Finder")
+@Description("A stage of the silhouettes search: decode, pixels, background, threshold, crop or scan")
+@StackTrace(false)
+class StageEvent extends Event {
+	@Label("Stage")
+	String stage;
+
+	@Label("Width")
+	int width;
+
+	@Label("Height")
+	int height;
+
+	@Label("Pixels")
+	long pixels;
+
+	@Label("Silhouettes")
+	@Description("The count of the found silhouettes (scan stage only)")
+	int components;
+
+	@Label("Allocated")
+	@Description("The bytes allocated by the thread of the stage")
+	@DataAmount
+	long allocated;
+}
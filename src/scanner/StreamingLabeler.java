@@ -0,0 +1,161 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * Counts silhouettes of a map which is given row by row.
+ * <p>
+ * Keeps only the silhouettes which are open (have cells in the previous row),
+ * so the used memory depends only on the width of the map.
+ */
+final class StreamingLabeler {
+	private final int width;
+	private final long minSize; // the min size of the silhouette
+
+	private int[] previous, current; // the labels of the cells of the previous and the current rows. 0 is background
+	private long[] sizes, nextSizes; // the size of each open silhouette, the index is its label
+
+	private int openCount; // the count of the open silhouettes. Their labels are 1..openCount
+
+	private final UnionFind sets; // the equivalences of the labels of a row
+
+	private long[] rootSizes; // the size of each set of the current row
+	private int[] newLabels; // the label of each root for the next row
+
+	private int count; // the count of the closed silhouettes which passed the size filter
+
+	StreamingLabeler(int width, long minSize) {
+		this.width = width;
+		this.minSize = minSize;
+
+		previous = new int[width];
+		current = new int[width];
+
+		sizes = new long[width / 2 + 2]; // a row has at most (width + 1) / 2 silhouettes
+		nextSizes = new long[sizes.length];
+
+		sets = new UnionFind(width + 2);
+
+		rootSizes = new long[width + 2];
+		newLabels = new int[width + 2];
+	}
+
+	/**
+	 * Adds the next row of the map.
+	 *
+	 * @param words  the packed row (see {@link BitMap})
+	 * @param offset the index of the first word of the row
+	 */
+	void addRow(long[] words, int offset) {
+		sets.clear();
+
+		for (int i = 0; i < openCount; ++i) { // the open silhouettes keep their labels
+			sets.make();
+		}
+
+		Arrays.fill(current, 0);
+
+		for (int k = 0; k < (width + 63) >>> 6; ++k) {
+			long word = words[offset + k];
+
+			while (word != 0) { // for each silhouette's cell of the word
+				final int x = (k << 6) + Long.numberOfTrailingZeros(word);
+
+				word &= word - 1; // clear the lowest set bit
+
+				final int left = x > 0 ? current[x - 1] : 0;
+				final int upper = previous[x];
+
+				if (left == 0 && upper == 0) { // a new silhouette (or a new part of a silhouette)
+					current[x] = sets.make();
+				} else if (left == 0) {
+					current[x] = upper;
+				} else {
+					current[x] = left;
+
+					if (upper != 0 && upper != left) { // the cell connects two parts of a silhouette
+						sets.union(left, upper);
+					}
+				}
+			}
+		}
+
+		// sum the sizes of the merged open silhouettes and the cells of the row
+		if (rootSizes.length < sets.size()) {
+			rootSizes = new long[sets.size() * 2];
+			newLabels = new int[rootSizes.length];
+		}
+
+		Arrays.fill(rootSizes, 0, sets.size(), 0);
+		Arrays.fill(newLabels, 0, sets.size(), 0);
+
+		for (int label = 1; label <= openCount; ++label) {
+			rootSizes[sets.find(label)] += sizes[label];
+		}
+
+		for (int x = 0; x < width; ++x) {
+			if (current[x] != 0) {
+				++rootSizes[sets.find(current[x])];
+			}
+		}
+
+		// give the silhouettes of the row the new labels 1..nextCount
+		int nextCount = 0;
+
+		for (int x = 0; x < width; ++x) {
+			if (current[x] != 0) {
+				final int root = sets.find(current[x]);
+
+				if (newLabels[root] == 0) {
+					newLabels[root] = ++nextCount;
+
+					nextSizes[nextCount] = rootSizes[root];
+				}
+
+				current[x] = newLabels[root];
+			}
+		}
+
+		// the open silhouettes which do not continue in the row are closed
+		for (int label = 1; label <= openCount; ++label) {
+			final int root = sets.find(label);
+
+			if (newLabels[root] == 0) {
+				newLabels[root] = -1; // count each closed silhouette once
+
+				if (rootSizes[root] >= minSize) { // filter noise and small objects
+					++count;
+				}
+			}
+		}
+
+		openCount = nextCount;
+
+		int[] labels = previous;
+		previous = current;
+		current = labels;
+
+		long[] swap = sizes;
+		sizes = nextSizes;
+		nextSizes = swap;
+	}
+
+	/**
+	 * Closes all open silhouettes.
+	 *
+	 * @return the silhouettes count
+	 */
+	int finish() {
+		for (int label = 1; label <= openCount; ++label) {
+			if (sizes[label] >= minSize) { // filter noise and small objects
+				++count;
+			}
+		}
+
+		openCount = 0;
+
+		Arrays.fill(previous, 0);
+
+		return count;
+	}
+}
@@ -0,0 +1,226 @@
+package scanner;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Counts silhouettes on an image which is too large to be decoded at once.
+ * <p>
+ * The image is read in bands of rows using source regions. Each band is thresholded and given to
+ * a streaming labeler, so only the band and a few packed rows are kept in memory.
+ * <p>
+ * The background color is defined before the bands are read: the perimeter rows and columns are read using source subsampling.
+ * Note that some formats (JPEG, PNG) have to decode the image from the start for each region,
+ * so the bands are as large as the band memory limit allows.
+ */
+public class StreamingScanner {
+	private static final long MAX_BAND_SIZE = 64L << 20; // the max size of the pixels of a band in bytes (4 bytes per pixel)
+
+	private final int minDeviation, minSizeFactor, cropPower;
+
+	public StreamingScanner(int minDeviation, int minSizeFactor, int cropPower) {
+		this.minDeviation = minDeviation;
+		this.minSizeFactor = minSizeFactor;
+		this.cropPower = cropPower;
+	}
+
+	/**
+	 * Counts silhouettes on an image file.
+	 *
+	 * @param file the image file
+	 * @return the silhouettes count
+	 * @throws IOException if the file cannot be read or its format is not supported
+	 */
+	public int findSilhouettes(File file) throws IOException {
+		try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+			if (input == null) {
+				throw new IOException("Cannot open file \"" + file + "\"");
+			}
+
+			final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+
+			if (!readers.hasNext()) {
+				throw new IOException("Unsupported image format");
+			}
+
+			final ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(input);
+
+				return findSilhouettes(reader);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	/**
+	 * Counts silhouettes on the first image of a reader.
+	 *
+	 * @param reader the reader with the input
+	 * @return the silhouettes count
+	 * @throws IOException if the image cannot be read
+	 */
+	public int findSilhouettes(ImageReader reader) throws IOException {
+		final int width = reader.getWidth(0), height = reader.getHeight(0);
+
+		final int[] background = getBackground(reader);
+
+		final StreamingLabeler labeler = new StreamingLabeler(width, (long) width * height / minSizeFactor);
+		final Cropper cropper = new Cropper(width, labeler);
+
+		final int bandHeight = (int) Math.max(1, Math.min(height, MAX_BAND_SIZE / 4 / width));
+
+		final ImageReadParam param = reader.getDefaultReadParam();
+
+		final int[] row = new int[width], deviations = new int[width];
+		final long[] words = new long[(width + 63) >>> 6];
+
+		for (int top = 0; top < height; top += bandHeight) {
+			param.setSourceRegion(new Rectangle(0, top, width, Math.min(bandHeight, height - top)));
+
+			final PixelReader pixels = PixelReader.of(reader.read(0, param));
+
+			for (int y = 0; y < pixels.height; ++y) {
+				pixels.readRow(y, row);
+
+				Deviations.thresholdRow(row, width, background, minDeviation, deviations, words, 0);
+
+				cropper.addRow(words);
+			}
+		}
+
+		return labeler.finish();
+	}
+
+	/**
+	 * Defines the background color of an image the same way as {@link Main#getBackground(PixelReader)}.
+	 * Reads only the perimeter rows and columns.
+	 *
+	 * @param reader the reader with the input
+	 * @return the background color as array[4] (red, green, blue, alpha)
+	 * @throws IOException if the image cannot be read
+	 */
+	public static int[] getBackground(ImageReader reader) throws IOException {
+		final int width = reader.getWidth(0), height = reader.getHeight(0);
+
+		final long[] sum = new long[4]; // red, green, blue, alpha
+
+		final ImageReadParam param = reader.getDefaultReadParam();
+
+		// scan horizontal perimeter lines (the first and the last rows)
+		param.setSourceSubsampling(1, Math.max(1, height - 1), 0, 0);
+
+		add(sum, reader.read(0, param), height == 1 ? 2 : 1); // a single row is both the first and the last one
+
+		// scan vertical perimeter lines (the first and the last columns without corners)
+		if (height > 2) {
+			param.setSourceRegion(new Rectangle(0, 1, width, height - 2));
+			param.setSourceSubsampling(Math.max(1, width - 1), 1, 0, 0);
+
+			add(sum, reader.read(0, param), width == 1 ? 2 : 1); // a single column is both the first and the last one
+		}
+
+		final int count = 2 * (width + height) - 4; // perimeter pixels count (4 is corner pixels)
+
+		return new int[]{(int) (sum[0] / count), (int) (sum[1] / count), (int) (sum[2] / count), (int) (sum[3] / count)};
+	}
+
+	/**
+	 * Adds the channels of all pixels of an image to the sums.
+	 *
+	 * @param sum   the sums of red, green, blue and alpha
+	 * @param image the image
+	 * @param times how many times each pixel is added
+	 */
+	private static void add(long[] sum, BufferedImage image, int times) {
+		final PixelReader pixels = PixelReader.of(image);
+
+		final int[] row = new int[pixels.width];
+
+		for (int y = 0; y < pixels.height; ++y) {
+			pixels.readRow(y, row);
+
+			for (int x = 0; x < pixels.width; ++x) {
+				sum[0] += times * ((row[x] >> 16) & 0xff);
+				sum[1] += times * ((row[x] >> 8) & 0xff);
+				sum[2] += times * (row[x] & 0xff);
+				sum[3] += times * (row[x] >>> 24);
+			}
+		}
+	}
+
+	/**
+	 * Crops the rows the same way as cropPower calls of {@link Main#cropMap(BitMap)}: a pixel is kept only if
+	 * all pixels of the (2 * cropPower + 1) square around it are silhouette's pixels.
+	 * Keeps the last 2 * cropPower + 1 rows.
+	 */
+	private class Cropper {
+		private final int wordsPerRow;
+
+		private final StreamingLabeler labeler;
+
+		private final long[][] rows; // the ring of the last rows
+		private final long[] result; // the cropped row
+
+		private int count; // the count of the added rows
+
+		private Cropper(int width, StreamingLabeler labeler) {
+			this.labeler = labeler;
+
+			wordsPerRow = (width + 63) >>> 6;
+
+			rows = new long[2 * cropPower + 1][wordsPerRow];
+			result = new long[wordsPerRow];
+		}
+
+		private void addRow(long[] words) {
+			if (cropPower == 0) {
+				labeler.addRow(words, 0);
+
+				return;
+			}
+
+			System.arraycopy(words, 0, rows[count++ % rows.length], 0, wordsPerRow);
+
+			if (count < rows.length) { // the upper rows are always cropped
+				return;
+			}
+
+			// crop upper and lower pixels
+			System.arraycopy(rows[0], 0, result, 0, wordsPerRow);
+
+			for (int i = 1; i < rows.length; ++i) {
+				for (int k = 0; k < wordsPerRow; ++k) {
+					result[k] &= rows[i][k];
+				}
+			}
+
+			// crop left and right pixels
+			for (int i = 0; i < cropPower; ++i) {
+				long previous = 0; // the word before the current one before it is cropped
+
+				for (int k = 0; k < wordsPerRow; ++k) {
+					final long word = result[k];
+
+					final long left = word << 1 | previous >>> 63; // the left neighbours
+					final long right = word >>> 1 | (k < wordsPerRow - 1 ? result[k + 1] << 63 : 0); // the right neighbours
+
+					result[k] = word & left & right;
+
+					previous = word;
+				}
+			}
+
+			labeler.addRow(result, 0); // the lower rows are always cropped, so they are not added
+		}
+	}
+}
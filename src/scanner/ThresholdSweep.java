@@ -0,0 +1,132 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * Counts silhouettes for every min deviation in one pass.
+ * <p>
+ * The pixels are sorted by deviation (counting sort using the histogram) and added to the map
+ * in decreasing order of deviation. The silhouettes are merged using union-find, so after the pixels of a deviation
+ * are added, the map is the map of this min deviation, and the count of the silhouettes which pass the size filter is known.
+ * <p>
+ * The crop is not applied (crop power is 0).
+ */
+public class ThresholdSweep {
+	private ThresholdSweep() {
+	}
+
+	/**
+	 * Counts silhouettes for every min deviation.
+	 *
+	 * @param deviations the deviations of the image
+	 * @param minSize    the min size of the silhouette
+	 * @return the silhouettes count of each min deviation as array[MAX_DEVIATION + 1]
+	 */
+	public static int[] countSilhouettes(DeviationMap deviations, int minSize) {
+		final int width = deviations.width, height = deviations.height;
+
+		final int[] histogram = deviations.getHistogram();
+
+		// sort the pixels by decreasing deviation
+		final int[] starts = new int[DeviationMap.MAX_DEVIATION + 2]; // the position of the first pixel of each deviation in the order
+
+		for (int deviation = DeviationMap.MAX_DEVIATION; deviation > 0; --deviation) {
+			starts[deviation - 1] = starts[deviation] + histogram[deviation];
+		}
+
+		final int[] order = new int[width * height]; // the indexes of the pixels sorted by decreasing deviation
+		final int[] positions = starts.clone();
+
+		for (int i = 0; i < order.length; ++i) {
+			order[positions[deviations.deviations[i]]++] = i;
+		}
+
+		// add the pixels to the map and merge the silhouettes
+		final int[] parent = new int[width * height]; // the parent of each added pixel, -1 if the pixel is not added
+		final int[] sizes = new int[width * height]; // the size of the silhouette of each root
+
+		Arrays.fill(parent, -1);
+
+		final int[] result = new int[DeviationMap.MAX_DEVIATION + 1];
+
+		int count = 0; // the count of the silhouettes which pass the size filter
+		int next = 0; // the position of the next pixel in the order
+
+		for (int deviation = DeviationMap.MAX_DEVIATION; deviation >= 0; --deviation) {
+			for (final int end = next + histogram[deviation]; next < end; ++next) {
+				final int i = order[next];
+
+				parent[i] = i; // a new silhouette
+				sizes[i] = 1;
+
+				if (minSize <= 1) {
+					++count;
+				}
+
+				final int x = i % width;
+
+				// merge with the added neighbours
+				if (x > 0 && parent[i - 1] >= 0) {
+					count += union(parent, sizes, i, i - 1, minSize);
+				}
+				if (x < width - 1 && parent[i + 1] >= 0) {
+					count += union(parent, sizes, i, i + 1, minSize);
+				}
+				if (i >= width && parent[i - width] >= 0) {
+					count += union(parent, sizes, i, i - width, minSize);
+				}
+				if (i < order.length - width && parent[i + width] >= 0) {
+					count += union(parent, sizes, i, i + width, minSize);
+				}
+			}
+
+			result[deviation] = count;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Merges the silhouettes of two pixels (union by size with path compression).
+	 *
+	 * @return the change of the count of the silhouettes which pass the size filter
+	 */
+	private static int union(int[] parent, int[] sizes, int a, int b, int minSize) {
+		a = find(parent, a);
+		b = find(parent, b);
+
+		if (a == b) {
+			return 0;
+		}
+
+		final int change = (sizes[a] + sizes[b] >= minSize ? 1 : 0) - (sizes[a] >= minSize ? 1 : 0) - (sizes[b] >= minSize ? 1 : 0);
+
+		if (sizes[a] < sizes[b]) { // attach the smaller tree to the bigger one
+			parent[a] = b;
+			sizes[b] += sizes[a];
+		} else {
+			parent[b] = a;
+			sizes[a] += sizes[b];
+		}
+
+		return change;
+	}
+
+	private static int find(int[] parent, int i) {
+		int root = i;
+
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+
+		while (parent[i] != root) { // compress the path
+			final int next = parent[i];
+
+			parent[i] = root;
+
+			i = next;
+		}
+
+		return root;
+	}
+}
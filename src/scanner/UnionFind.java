@@ -0,0 +1,105 @@
+package scanner;
+
+import java.util.Arrays;
+
+/**
+ * Disjoint sets of provisional labels with path compression and union by rank.
+ * Label 0 is reserved for the background, so the first created label is 1.
+ */
+final class UnionFind {
+	private int[] parent, rank; // the parent label and the rank of each label
+
+	private int count; // the count of created labels (including the background label)
+
+	UnionFind(int capacity) {
+		parent = new int[Math.max(capacity, 2)];
+		rank = new int[parent.length];
+
+		clear();
+	}
+
+	/**
+	 * Deletes all labels except the background one. Keeps the allocated arrays.
+	 */
+	void clear() {
+		count = 1;
+	}
+
+	/**
+	 * Creates a new label which is a single-element set.
+	 *
+	 * @return the new label
+	 */
+	int make() {
+		if (count == parent.length) { // grow the arrays
+			parent = Arrays.copyOf(parent, parent.length * 2);
+			rank = Arrays.copyOf(rank, parent.length);
+		}
+
+		parent[count] = count;
+		rank[count] = 0;
+
+		return count++;
+	}
+
+	/**
+	 * Finds the root label of a set and compresses the path to it.
+	 *
+	 * @param label the label
+	 * @return the root label
+	 */
+	int find(int label) {
+		int root = label;
+
+		while (parent[root] != root) {
+			root = parent[root];
+		}
+
+		while (parent[label] != root) { // compress the path
+			final int next = parent[label];
+
+			parent[label] = root;
+
+			label = next;
+		}
+
+		return root;
+	}
+
+	/**
+	 * Merges the sets of two labels.
+	 *
+	 * @param a the first label
+	 * @param b the second label
+	 * @return the root label of the merged set
+	 */
+	int union(int a, int b) {
+		a = find(a);
+		b = find(b);
+
+		if (a == b) {
+			return a;
+		}
+
+		if (rank[a] < rank[b]) { // attach the lower tree to the higher one
+			parent[a] = b;
+
+			return b;
+		}
+
+		parent[b] = a;
+
+		if (rank[a] == rank[b]) {
+			++rank[a];
+		}
+
+		return a;
+	}
+
+	/**
+	 * @return the count of created labels (including the background label)
+	 */
+	int size() {
+		return count;
+	}
+}
@@ -0,0 +1,103 @@
+package scanner;
+
+import java.util.Random;
+
+/**
+ * Checks the incremental mode of {@link ImageScannerParallel} against {@link ImageScannerBFS} on sequences of random maps:
+ * the maps with a few changed rows, the scans with the labeling on and off, and the maps of another width
+ * whose words of the stripes are the same.
+ * <p>
+ * Run: javac -d out src/scanner/*.java test/scanner/*.java &amp;&amp; java -cp out scanner.ImageScannerParallelTest
+ */
+public class ImageScannerParallelTest {
+	private static final int MIN_SIZE = 3;
+
+	public static void main(String[] args) {
+		testChangedRows();
+		testWidthChange();
+
+		System.out.println("ImageScannerParallelTest passed");
+	}
+
+	/**
+	 * Changes a few rows of the map between the scans and switches the labeling on and off.
+	 */
+	private static void testChangedRows() {
+		final Random random = new Random(1);
+
+		final BitMap map = createMap(200, 256, random);
+
+		final ImageScannerParallel scanner = new ImageScannerParallel(map, MIN_SIZE);
+		scanner.setIncremental(true);
+
+		for (int i = 0; i < 300; ++i) {
+			final int fromY = random.nextInt(map.height);
+
+			for (int j = 0; j < 200; ++j) {
+				final int x = random.nextInt(map.width), y = Math.min(fromY + random.nextInt(8), map.height - 1);
+
+				map.set(x, y, !map.get(x, y));
+			}
+
+			scanner.setLabeling(random.nextBoolean());
+
+			check(scanner, "scan " + i);
+		}
+	}
+
+	/**
+	 * Scans a map, then a map of another width with the same count of words per row and the same words,
+	 * so only the width tells that the cells of the stripes are changed.
+	 */
+	private static void testWidthChange() {
+		final Random random = new Random(2);
+
+		for (int i = 0; i < 200; ++i) {
+			final int height = 64 + random.nextInt(64);
+			final int width = 33 + random.nextInt(32), otherWidth = 33 + random.nextInt(32);
+
+			final BitMap map = createMap(width, height, random);
+			final BitMap other = new BitMap(otherWidth, height);
+
+			final long mask = -1L >>> (64 - Math.min(width, otherWidth)); // the cells of both maps
+			final long[] words = map.words;
+
+			for (int k = 0; k < words.length; ++k) {
+				words[k] &= mask;
+				other.words[k] = words[k];
+			}
+
+			final ImageScannerParallel scanner = new ImageScannerParallel(map, MIN_SIZE);
+			scanner.setIncremental(true);
+
+			check(scanner, "the first map " + width + "x" + height);
+
+			scanner.map = other;
+
+			check(scanner, "the map " + otherWidth + "x" + height + " after " + width + "x" + height);
+		}
+	}
+
+	private static BitMap createMap(int width, int height, Random random) {
+		final BitMap map = new BitMap(width, height);
+
+		for (int y = 0; y < height; ++y) {
+			for (int x = 0; x < width; ++x) {
+				map.set(x, y, random.nextInt(3) == 0);
+			}
+		}
+
+		return map;
+	}
+
+	/**
+	 * Scans the map of the scanner and compares the count with the count of BFS.
+	 */
+	private static void check(ImageScannerParallel scanner, String message) {
+		final int count = scanner.scan().size(), expected = new ImageScannerBFS(scanner.map, MIN_SIZE).scan().size();
+
+		if (count != expected) {
+			throw new AssertionError(message + ": " + count + " silhouettes instead of " + expected);
+		}
+	}
+}
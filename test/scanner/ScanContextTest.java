@@ -0,0 +1,89 @@
+package scanner;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that the repeated scans with a shared {@link ScanContext} allocate nothing in the steady state.
+ * The allocations of all threads are measured, so the fork-join workers of the parallel scanner are counted too.
+ * <p>
+ * Run: javac -d out src/scanner/*.java test/scanner/*.java &amp;&amp; java -cp out scanner.ScanContextTest
+ */
+public class ScanContextTest {
+	private static final ScanMode[] MODES = {ScanMode.DFS, ScanMode.BFS, ScanMode.UNION_FIND, ScanMode.PARALLEL};
+
+	private static final int WARM_UP_SCANS = 2000, SCANS = 200;
+
+	private static final long MAX_ALLOCATED = 100; // the bytes of all scans. The measurement itself allocates the array of the allocated bytes (64 bytes)
+
+	public static void main(String[] args) {
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		final BitMap map = createMap(256, 192);
+
+		for (ScanMode mode : MODES) {
+			for (boolean labeling : new boolean[]{false, true}) {
+				final ImageScanner scanner = mode.createScanner(map, 4, new ScanContext());
+
+				scanner.setLabeling(labeling);
+
+				final int count = scanner.scan().size();
+
+				for (int i = 0; i < WARM_UP_SCANS; ++i) { // the buffers grow to their sizes and the code is compiled
+					scanner.scan();
+				}
+
+				final long[] ids = threads.getAllThreadIds(); // the workers of the pool are started by the warm-up
+				final long before = sum(threads.getThreadAllocatedBytes(ids));
+
+				for (int i = 0; i < SCANS; ++i) {
+					if (scanner.scan().size() != count) {
+						throw new AssertionError(mode + ": the count of a repeated scan is changed");
+					}
+				}
+
+				final long allocated = sum(threads.getThreadAllocatedBytes(ids)) - before;
+
+				if (allocated > MAX_ALLOCATED) {
+					throw new AssertionError(mode + (labeling ? " with labels" : "") + ": " + SCANS + " scans allocated " + allocated + " bytes");
+				}
+			}
+		}
+
+		System.out.println("ScanContextTest passed");
+	}
+
+	/**
+	 * @return the map with random blobs, so the scanners find many silhouettes of different sizes
+	 */
+	private static BitMap createMap(int width, int height) {
+		final BitMap map = new BitMap(width, height);
+		final Random random = new Random(0);
+
+		for (int i = 0; i < 120; ++i) {
+			final int centerX = random.nextInt(width), centerY = random.nextInt(height), radius = 1 + random.nextInt(8);
+
+			for (int y = Math.max(centerY - radius, 0); y <= Math.min(centerY + radius, height - 1); ++y) {
+				for (int x = Math.max(centerX - radius, 0); x <= Math.min(centerX + radius, width - 1); ++x) {
+					if ((x - centerX) * (x - centerX) + (y - centerY) * (y - centerY) <= radius * radius) {
+						map.set(x, y);
+					}
+				}
+			}
+		}
+
+		return map;
+	}
+
+	private static long sum(long[] values) {
+		long sum = 0;
+
+		for (long value : values) {
+			if (value > 0) { // -1 if the thread is ended
+				sum += value;
+			}
+		}
+
+		return sum;
+	}
+}
@@ -0,0 +1,187 @@
+package scanner;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Drives {@link ScanServer} over localhost: a scan (200), the bad requests (400), the other methods (405)
+ * and the requests which do not fit the queue (429).
+ * <p>
+ * Run: javac -d out src/scanner/*.java test/scanner/*.java &amp;&amp; java -cp out scanner.ScanServerTest
+ */
+public class ScanServerTest {
+	private static final int THREADS = 1, QUEUE_CAPACITY = 1; // so two requests fill the server
+
+	public static void main(String[] args) throws Exception {
+		final ScanServer server = new ScanServer(130, 140, 0, ScanMode.UNION_FIND, THREADS, QUEUE_CAPACITY);
+
+		final int port = server.start(0);
+
+		try {
+			final String url = "http://localhost:" + port + "/scan";
+
+			testScan(url);
+			testBadRequests(url);
+			testMethod(url);
+			testBusy(port, url);
+		} finally {
+			server.stop();
+		}
+
+		System.out.println("ScanServerTest passed");
+	}
+
+	private static void testScan(String url) throws IOException {
+		final Response response = post(url, createImage());
+
+		check(response.status == 200, "the scan must succeed: " + response);
+		check(response.body.contains("\"width\":200,\"height\":100,\"count\":2,"), "the two squares must be found: " + response);
+	}
+
+	private static void testBadRequests(String url) throws IOException {
+		check(post(url, new byte[0]).status == 400, "the empty image must be rejected");
+		check(post(url, "not an image".getBytes(StandardCharsets.UTF_8)).status == 400, "the undecodable image must be rejected");
+		check(post(url + "?minDeviation=abc", createImage()).status == 400, "the bad parameter must be rejected");
+		check(post(url + "?minSizeFactor=0", createImage()).status == 400, "the parameter out of the range must be rejected");
+	}
+
+	private static void testMethod(String url) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+		try {
+			check(connection.getResponseCode() == 405, "GET must not be allowed");
+			check("POST".equals(connection.getHeaderField("Allow")), "the allowed method must be sent");
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Holds all permits of the server with the requests whose images are not sent yet, so the next request is rejected.
+	 */
+	private static void testBusy(int port, String url) throws Exception {
+		final Socket[] holders = new Socket[THREADS + QUEUE_CAPACITY];
+
+		try {
+			for (int i = 0; i < holders.length; ++i) {
+				holders[i] = new Socket("localhost", port);
+
+				final OutputStream output = holders[i].getOutputStream();
+
+				output.write(("POST /scan HTTP/1.1\r\nHost: localhost\r\nContent-Length: 1000\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+				output.write(new byte[10]); // the handler waits for the rest of the image
+				output.flush();
+			}
+
+			Response response = null;
+
+			for (int attempt = 0; attempt < 50; ++attempt) { // the handlers of the holders take their permits asynchronously
+				response = post(url, createImage());
+
+				if (response.status == 429) {
+					break;
+				}
+
+				Thread.sleep(100);
+			}
+
+			check(response.status == 429, "the request which does not fit the queue must be rejected: " + response);
+		} finally {
+			for (Socket holder : holders) {
+				if (holder != null) {
+					holder.close();
+				}
+			}
+		}
+
+		Response response = null;
+
+		for (int attempt = 0; attempt < 50; ++attempt) { // the handlers of the closed holders release their permits
+			response = post(url, createImage());
+
+			if (response.status == 200) {
+				break;
+			}
+
+			Thread.sleep(100);
+		}
+
+		check(response.status == 200, "the permits must be released: " + response);
+	}
+
+	/**
+	 * @return the PNG image with two black squares on the white background
+	 */
+	private static byte[] createImage() throws IOException {
+		final BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_3BYTE_BGR);
+		final Graphics2D graphics = image.createGraphics();
+
+		graphics.setColor(Color.WHITE);
+		graphics.fillRect(0, 0, 200, 100);
+		graphics.setColor(Color.BLACK);
+		graphics.fillRect(20, 20, 40, 40);
+		graphics.fillRect(120, 30, 50, 50);
+		graphics.dispose();
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		ImageIO.write(image, "png", bytes);
+
+		return bytes.toByteArray();
+	}
+
+	private static Response post(String url, byte[] body) throws IOException {
+		final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+
+		try {
+			connection.setRequestMethod("POST");
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+
+			try (OutputStream output = connection.getOutputStream()) {
+				output.write(body);
+			} catch (IOException e) {
+				// the server can reject the request before the body is read
+			}
+
+			final int status = connection.getResponseCode();
+
+			try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				return new Response(status, input == null ? "" : new String(input.readAllBytes(), StandardCharsets.UTF_8));
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition) {
+			throw new AssertionError(message);
+		}
+	}
+
+	private static class Response {
+		private final int status;
+		private final String body;
+
+		private Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		@Override
+		public String toString() {
+			return status + " " + body;
+		}
+	}
+}